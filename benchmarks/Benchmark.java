@@ -0,0 +1,46 @@
+/**
+ * Interface for the benchmarks run by BenchmarkRunner.
+ * A benchmark is run once for every value of its parameter. setUp prepares the data for a value, then run is called
+ * repeatedly and timed.
+ */
+public interface Benchmark {
+
+    /**
+     * @return name of the benchmark in the results
+     */
+    String getName();
+
+    /**
+     * @return name of the parameter in the results
+     */
+    String getParameterName();
+
+    /**
+     * @return values of the parameter to run the benchmark with
+     */
+    int[] getParameters();
+
+    /**
+     * @return name of the unit of work counted by getUnits, such as pairs or particles
+     */
+    String getUnitName();
+
+    /**
+     * Prepares the data for the given value of the parameter, outside of the timed runs
+     * @param parameter
+     * @throws Exception
+     */
+    void setUp(int parameter) throws Exception;
+
+    /**
+     * @return number of units of work done by a single run, used to report the throughput
+     */
+    long getUnits();
+
+    /**
+     * Runs one operation of the benchmark
+     * @return a value depending on the result of the operation, so that the work cannot be optimized away
+     * @throws Exception
+     */
+    double run() throws Exception;
+}
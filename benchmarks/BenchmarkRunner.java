@@ -0,0 +1,132 @@
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Runs the benchmarks of the hot paths of the simulation and prints, for every benchmark and value of its parameter,
+ * the average time of an operation and the throughput in units of work per second.
+ * Every benchmark is first run for a number of warmup iterations so that the JIT compiler has compiled it, then timed
+ * over a number of measurement iterations of a fixed duration each. The error is the standard deviation of the time
+ * of an operation over the measurement iterations.
+ * Usage: java --add-modules jdk.incubator.vector -cp target/classes BenchmarkRunner [-w warmup iterations]
+ *   [-i measurement iterations]
+ *   [-t milliseconds per iteration] [-o results.csv] [benchmark name prefix ...]
+ * The results file can be compared against benchmarks/baseline.csv.
+ */
+public class BenchmarkRunner {
+    private static volatile double sink; // results of the benchmarks, so that their work cannot be optimized away
+
+    public static void main(String... args) throws Exception {
+        int warmupIterations = 3;
+        int iterations = 5;
+        long iterationMillis = 500;
+        String output = null;
+        List<String> filters = new ArrayList<>();
+        for (int a = 0; a < args.length; a++) {
+            switch (args[a]) {
+                case "-w":
+                    warmupIterations = Integer.parseInt(args[++a]);
+                    break;
+                case "-i":
+                    iterations = Integer.parseInt(args[++a]);
+                    break;
+                case "-t":
+                    iterationMillis = Long.parseLong(args[++a]);
+                    break;
+                case "-o":
+                    output = args[++a];
+                    break;
+                default:
+                    filters.add(args[a]);
+            }
+        }
+
+        List<Benchmark> benchmarks = Arrays.asList(new ForceKernelBenchmark("scalar"),
+                new ForceKernelBenchmark("vector"), new TracerForceBenchmark(), new HaloCodecBenchmark(),
+                new MigrationBenchmark(), new RendererBenchmark());
+        List<String> results = new ArrayList<>();
+        System.out.println(String.format("%-24s %-18s %16s %12s %16s", "Benchmark", "Parameter", "ns/op", "error",
+                "units/s"));
+        for (Benchmark benchmark : benchmarks) {
+            if (!matches(benchmark.getName(), filters)) continue;
+            for (int parameter : benchmark.getParameters()) {
+                benchmark.setUp(parameter);
+                for (int i = 0; i < warmupIterations; i++) {
+                    measure(benchmark, iterationMillis);
+                }
+                double[] nanosPerOperation = new double[iterations];
+                for (int i = 0; i < iterations; i++) {
+                    nanosPerOperation[i] = measure(benchmark, iterationMillis);
+                }
+                double mean = 0;
+                for (double value : nanosPerOperation) {
+                    mean += value / iterations;
+                }
+                double variance = 0;
+                for (double value : nanosPerOperation) {
+                    variance += (value - mean) * (value - mean) / Math.max(iterations - 1, 1);
+                }
+                double error = Math.sqrt(variance);
+                double unitsPerSecond = benchmark.getUnits() * 1e9 / mean;
+                System.out.println(String.format("%-24s %-18s %16.1f %12.1f %16.4e %s", benchmark.getName(),
+                        benchmark.getParameterName() + "=" + parameter, mean, error, unitsPerSecond,
+                        benchmark.getUnitName()));
+                results.add(benchmark.getName() + "," + benchmark.getParameterName() + "," + parameter + ","
+                        + String.format("%.1f,%.1f,%.4e", mean, error, unitsPerSecond) + ","
+                        + benchmark.getUnitName());
+            }
+        }
+
+        if (output != null) {
+            try (PrintWriter out = new PrintWriter(new FileWriter(output))) {
+                out.println("# java " + System.getProperty("java.version") + ", "
+                        + Runtime.getRuntime().availableProcessors() + " processors, " + warmupIterations
+                        + " warmup and " + iterations + " measurement iterations of " + iterationMillis + " ms");
+                out.println("benchmark,parameter,value,ns_per_op,error,units_per_second,unit");
+                for (String result : results) {
+                    out.println(result);
+                }
+            } catch (IOException e) {
+                System.out.println(e);
+            }
+        }
+    }
+
+    /**
+     * Runs the benchmark for the given time
+     * @param benchmark
+     * @param millis
+     * @return average time of an operation in nanoseconds
+     * @throws Exception
+     */
+    private static double measure(Benchmark benchmark, long millis) throws Exception {
+        long duration = millis * 1000000;
+        long operations = 0;
+        double result = 0;
+        long start = System.nanoTime();
+        long elapsed;
+        do {
+            result += benchmark.run();
+            operations++;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < duration);
+        sink = result;
+        return (double)elapsed / operations;
+    }
+
+    /**
+     * @param name
+     * @param filters prefixes of the benchmarks to run, every benchmark is run if empty
+     * @return true if the benchmark with the given name should be run
+     */
+    private static boolean matches(String name, List<String> filters) {
+        if (filters.isEmpty()) return true;
+        for (String filter : filters) {
+            if (name.startsWith(filter)) return true;
+        }
+        return false;
+    }
+}
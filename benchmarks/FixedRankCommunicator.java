@@ -0,0 +1,87 @@
+import java.nio.ByteBuffer;
+
+/**
+ * Communicator of a single rank of a grid of processes that never sends anything, for benchmarking the parts of a
+ * process that prepare messages without running the other processes. Collectives only see the current process.
+ */
+public class FixedRankCommunicator implements Communicator {
+    private int rank; // rank of the process
+    private int columns, rows; // layout of the grid of processes
+
+    /**
+     * Constructor for FixedRankCommunicator objects
+     * @param rank rank of the process
+     * @param columns number of processes along the width of the grid
+     * @param rows number of processes along the height of the grid
+     */
+    public FixedRankCommunicator(int rank, int columns, int rows) {
+        this.rank = rank;
+        this.columns = columns;
+        this.rows = rows;
+    }
+
+    @Override
+    public int getRank() {
+        return rank;
+    }
+
+    @Override
+    public int getSize() {
+        return columns * rows;
+    }
+
+    @Override
+    public Communicator createGrid(int columns, int rows) {
+        return new FixedRankCommunicator(rank, columns, rows);
+    }
+
+    @Override
+    public int rankAt(int column, int row) {
+        return Math.floorMod(row, rows) * columns + Math.floorMod(column, columns);
+    }
+
+    @Override
+    public void send(ByteBuffer buffer, int destination, int tag) {
+        throw new UnsupportedOperationException("send");
+    }
+
+    @Override
+    public void receive(Message message, int source, int tag) {
+        throw new UnsupportedOperationException("receive");
+    }
+
+    @Override
+    public void iSend(Message message, ByteBuffer buffer, int destination, int tag) {
+        throw new UnsupportedOperationException("iSend");
+    }
+
+    @Override
+    public void iRecv(Message message, int bytes, int source, int tag) {
+        throw new UnsupportedOperationException("iRecv");
+    }
+
+    @Override
+    public int waitAny(Message[] messages) {
+        throw new UnsupportedOperationException("waitAny");
+    }
+
+    @Override
+    public void waitAll(Message[] messages) {
+        throw new UnsupportedOperationException("waitAll");
+    }
+
+    @Override
+    public void allReduceSum(double[] send, double[] receive, int count) {
+        System.arraycopy(send, 0, receive, 0, count);
+    }
+
+    @Override
+    public void allReduceMax(double[] send, double[] receive, int count) {
+        System.arraycopy(send, 0, receive, 0, count);
+    }
+
+    @Override
+    public void allGatherv(double[] send, int sendCount, double[] receive, int[] counts, int[] displacements) {
+        System.arraycopy(send, 0, receive, displacements[rank], sendCount);
+    }
+}
@@ -0,0 +1,71 @@
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Benchmark of the direct pairwise force kernel: the force on every particle of a universe from every other particle.
+ * Throughput is in pair interactions per second.
+ */
+public class ForceKernelBenchmark implements Benchmark {
+    private String kernelName; // kernel asked for, vector or scalar
+    private ForceKernel kernel; // kernel summing the pairwise forces
+    private ParticleStore particles; // particles of the universe
+    private DirectForceSolver solver; // solver running the pairwise kernel
+
+    /**
+     * Constructor for ForceKernelBenchmark objects
+     * @param kernelName kernel to benchmark, vector or scalar
+     */
+    public ForceKernelBenchmark(String kernelName) {
+        this.kernelName = kernelName;
+        this.kernel = ForceKernel.create(kernelName, 0.01);
+    }
+
+    /**
+     * @return force.direct followed by the kernel asked for, which may have fallen back to the scalar kernel
+     */
+    @Override
+    public String getName() {
+        return "force.direct." + kernelName;
+    }
+
+    @Override
+    public String getParameterName() {
+        return "particles";
+    }
+
+    @Override
+    public int[] getParameters() {
+        return new int[] {1000, 4000};
+    }
+
+    @Override
+    public String getUnitName() {
+        return "pairs";
+    }
+
+    @Override
+    public void setUp(int parameter) {
+        Random random = new Random(parameter);
+        particles = new ParticleStore(parameter);
+        for (int i = 0; i < parameter; i++) {
+            particles.add(i, 0.0001, 0.0001, random.nextDouble() * 100, random.nextDouble() * 100, 0, 0, 0, 0, false);
+        }
+        solver = new DirectForceSolver(kernel);
+        solver.prepare(particles, new ArrayList<>());
+    }
+
+    @Override
+    public long getUnits() {
+        return (long)particles.count * particles.count;
+    }
+
+    @Override
+    public double run() {
+        double sum = 0;
+        for (int i = 0; i < particles.count; i++) {
+            solver.computeForce(particles, i);
+            sum += particles.forceX[i];
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,55 @@
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * Benchmark of the halo wire format: encoding a message of ghosts and decoding it on the receiving side.
+ */
+public class HaloCodecBenchmark implements Benchmark {
+    private ParticleStore halo; // particles to send
+    private ParticleStore received; // store the message is decoded into, reused like the ones of HaloExchange
+    private ByteBuffer buffer; // encoded message, reused like the send buffers of HaloExchange
+
+    @Override
+    public String getName() {
+        return "codec.encode-decode";
+    }
+
+    @Override
+    public String getParameterName() {
+        return "halo";
+    }
+
+    @Override
+    public int[] getParameters() {
+        return new int[] {100, 1000, 10000};
+    }
+
+    @Override
+    public String getUnitName() {
+        return "particles";
+    }
+
+    @Override
+    public void setUp(int parameter) {
+        Random random = new Random(parameter);
+        halo = new ParticleStore(parameter);
+        for (int i = 0; i < parameter; i++) {
+            halo.add(i, 0.0001, 0.0001, random.nextDouble() * 100, random.nextDouble() * 100,
+                    random.nextGaussian(), random.nextGaussian(), 0, 0, i % 1000 == 0);
+        }
+        received = new ParticleStore();
+        buffer = null;
+    }
+
+    @Override
+    public long getUnits() {
+        return halo.count;
+    }
+
+    @Override
+    public double run() throws Exception {
+        buffer = HaloCodec.encode(halo, 0, buffer);
+        HaloCodec.decode(buffer, received);
+        return received.locX[received.count - 1];
+    }
+}
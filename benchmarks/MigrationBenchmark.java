@@ -0,0 +1,69 @@
+import java.util.Random;
+
+/**
+ * Benchmark of the particle hand-over of a process in the middle of a 3 x 3 grid: finding the particles that left its
+ * universe, removing them and encoding them for the processes they moved to, together with the ghosts within the
+ * interaction range. About 5% of the particles have left the universe at every run, and every run first restores the
+ * particles that the previous run removed.
+ */
+public class MigrationBenchmark implements Benchmark {
+    private static final int CENTRE = 4; // rank of the process in the middle of the grid
+    private static final double RANGE = 5; // interaction range the ghosts are selected with
+
+    private ParticleStore initial; // particles of the universe before the hand-over
+    private ParticleStore particles; // particles of the universe, restored from initial at every run
+    private Decomposition decomposition; // 3 x 3 grid of 100 x 100 universes
+    private HaloExchange exchange; // exchange of the process in the middle of the grid
+
+    @Override
+    public String getName() {
+        return "migration.export";
+    }
+
+    @Override
+    public String getParameterName() {
+        return "particles";
+    }
+
+    @Override
+    public int[] getParameters() {
+        return new int[] {10000, 100000};
+    }
+
+    @Override
+    public String getUnitName() {
+        return "particles";
+    }
+
+    @Override
+    public void setUp(int parameter) throws Exception {
+        Random random = new Random(parameter);
+        decomposition = new Decomposition(3, 3, 300, 300);
+        initial = new ParticleStore(parameter);
+        for (int i = 0; i < parameter; i++) {
+            double x = 100 + random.nextDouble() * 100;
+            double y = 100 + random.nextDouble() * 100;
+            if (random.nextDouble() < 0.05) {
+                // moved just across one of the edges
+                x += random.nextBoolean() ? (x < 150 ? -2 : 2) : 0;
+                y += y < 150 ? -2 : 2;
+            }
+            initial.add(i, 0.0001, 0.0001, x, y, 0, 0, 0, 0, false);
+        }
+        particles = new ParticleStore(parameter);
+        Communicator grid = new FixedRankCommunicator(CENTRE, 3, 3);
+        exchange = new HaloExchange(grid, GridUtil.shouldSend(grid, 1, 3, 3));
+    }
+
+    @Override
+    public long getUnits() {
+        return initial.count;
+    }
+
+    @Override
+    public double run() {
+        particles.copyFrom(initial);
+        exchange.exportParticles(particles, decomposition, RANGE, true);
+        return particles.count;
+    }
+}
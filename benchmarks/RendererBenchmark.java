@@ -0,0 +1,66 @@
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Benchmark of the PPM renderer: drawing the particles of a universe and writing the image to a file.
+ * The universe is as many units of length wide and high as the grid size, with one small particle for every four
+ * pixels and a few large particles.
+ */
+public class RendererBenchmark implements Benchmark {
+    private ParticleStore particles; // particles of the universe
+    private PPM image; // renderer, reused like the one of Universe
+    private int gridSize; // width and height of the universe
+    private File file; // image file, removed when the JVM exits
+
+    @Override
+    public String getName() {
+        return "render.p6";
+    }
+
+    @Override
+    public String getParameterName() {
+        return "grid";
+    }
+
+    @Override
+    public int[] getParameters() {
+        return new int[] {100, 400, 1600};
+    }
+
+    @Override
+    public String getUnitName() {
+        return "pixels";
+    }
+
+    @Override
+    public void setUp(int parameter) throws Exception {
+        Random random = new Random(parameter);
+        gridSize = parameter;
+        int count = parameter * parameter / 4;
+        particles = new ParticleStore(count + 4);
+        for (int i = 0; i < count; i++) {
+            particles.add(i, 0.0001, 0.0001, random.nextDouble() * parameter, random.nextDouble() * parameter,
+                    0, 0, 0, 0, false);
+        }
+        for (int i = 0; i < 4; i++) {
+            particles.add(count + i, parameter / 20.0, 10, random.nextDouble() * parameter,
+                    random.nextDouble() * parameter, 0, 0, 0, 0, true);
+        }
+        image = new PPM(parameter, parameter);
+        file = File.createTempFile("render", ".ppm");
+        file.deleteOnExit();
+    }
+
+    @Override
+    public long getUnits() {
+        return (long)gridSize * gridSize;
+    }
+
+    @Override
+    public double run() throws Exception {
+        image.render(particles, new ArrayList<>(), 0, 0, gridSize, gridSize);
+        image.write(file.getPath(), true);
+        return file.length();
+    }
+}
@@ -0,0 +1,132 @@
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Benchmark of the forces on tracers: every particle of a universe feels the large particles only, through a
+ * LargeParticleForceSolver without a solver of the small particles. Throughput is in pair interactions per second.
+ * Before timing, setUp checks the forces against a direct sum over the true large particles, after the gathered
+ * copies have drifted away from the large particles of the current universe as they do between block time-step
+ * sub-steps, and throws if they differ.
+ */
+public class TracerForceBenchmark implements Benchmark {
+    private static final int LOCAL_LARGE = 4; // large particles of the current universe
+    private static final int REMOTE_LARGE = 4; // large particles of other processes
+    private static final double SOFTENING = 0.01; // softening length of the kernel
+    private static final double TOLERANCE = 1e-9; // largest relative difference to the direct sum
+
+    private ParticleStore particles; // tracers and large particles of the universe
+    private LargeParticleForceSolver solver; // solver of the forces of the large particles
+
+    @Override
+    public String getName() {
+        return "force.tracers";
+    }
+
+    @Override
+    public String getParameterName() {
+        return "particles";
+    }
+
+    @Override
+    public int[] getParameters() {
+        return new int[] {10000, 100000};
+    }
+
+    @Override
+    public String getUnitName() {
+        return "pairs";
+    }
+
+    @Override
+    public void setUp(int parameter) throws Exception {
+        Random random = new Random(parameter);
+        particles = new ParticleStore(parameter + LOCAL_LARGE);
+        for (int i = 0; i < LOCAL_LARGE; i++) {
+            particles.add(i, 2, 10, random.nextDouble() * 100, random.nextDouble() * 100, 0.5, -0.5, 0, 0, true);
+        }
+        for (int i = 0; i < parameter; i++) {
+            particles.add(LOCAL_LARGE + REMOTE_LARGE + i, 0.0001, 0.0001, random.nextDouble() * 100,
+                    random.nextDouble() * 100, 0, 0, 0, 0, false);
+        }
+        solver = new LargeParticleForceSolver(null, ForceKernel.create("auto", SOFTENING),
+                new FixedRankCommunicator(0, 1, 1));
+        solver.gather(particles);
+        ParticleStore gathered = solver.getLargeParticles();
+        ParticleStore remote = new ParticleStore();
+        for (int i = 0; i < REMOTE_LARGE; i++) {
+            double locX = random.nextDouble() * 100;
+            double locY = random.nextDouble() * 100;
+            gathered.add(LOCAL_LARGE + i, 2, 10, locX, locY, 0, 0, 0, 0, true);
+            remote.add(LOCAL_LARGE + i, 2, 10, locX, locY, 0, 0, 0, 0, true);
+        }
+        // the large particles of the current universe step on, while the gathered copies drift on their own
+        for (int i = 0; i < LOCAL_LARGE; i++) {
+            particles.locX[i] += 0.3;
+            gathered.locY[i] -= 0.7;
+        }
+        solver.prepare(particles, new ArrayList<>());
+        for (int i = 0; i < particles.count; i++) {
+            solver.computeForce(particles, i);
+            double[] expected = directForce(particles, i, remote);
+            double scale = Math.max(Math.hypot(expected[0], expected[1]), Double.MIN_NORMAL);
+            double error = Math.hypot(particles.forceX[i] - expected[0], particles.forceY[i] - expected[1]);
+            if (error > TOLERANCE * scale) {
+                throw new IllegalStateException("force on particle " + particles.id[i] + " is ("
+                        + particles.forceX[i] + ", " + particles.forceY[i] + "), the direct sum is ("
+                        + expected[0] + ", " + expected[1] + ")");
+            }
+        }
+    }
+
+    /**
+     * @param particles particles of the universe
+     * @param index index of the particle
+     * @param remote large particles of other processes
+     * @return force on the particle from every other large particle, summed directly
+     */
+    private static double[] directForce(ParticleStore particles, int index, ParticleStore remote) {
+        double[] force = new double[2];
+        for (int j = 0; j < particles.count; j++) {
+            if (j != index && particles.large[j]) {
+                addForce(particles, index, particles, j, force);
+            }
+        }
+        for (int j = 0; j < remote.count; j++) {
+            addForce(particles, index, remote, j, force);
+        }
+        return force;
+    }
+
+    /**
+     * Adds the force of a source particle on a particle
+     * @param particles store holding the particle
+     * @param index index of the particle
+     * @param sources store holding the source
+     * @param j index of the source
+     * @param force force to add to
+     */
+    private static void addForce(ParticleStore particles, int index, ParticleStore sources, int j, double[] force) {
+        double xLength = sources.locX[j] - particles.locX[index];
+        double yLength = sources.locY[j] - particles.locY[index];
+        double distanceSquared = xLength * xLength + yLength * yLength + SOFTENING * SOFTENING;
+        double weight = 3 * particles.mass[index] * sources.mass[j] / (distanceSquared * Math.sqrt(distanceSquared));
+        force[0] += xLength * weight;
+        force[1] += yLength * weight;
+    }
+
+    @Override
+    public long getUnits() {
+        return (long)particles.count * (LOCAL_LARGE + REMOTE_LARGE);
+    }
+
+    @Override
+    public double run() throws Exception {
+        solver.prepare(particles, new ArrayList<>());
+        double sum = 0;
+        for (int i = 0; i < particles.count; i++) {
+            solver.computeForce(particles, i);
+            sum += particles.forceX[i];
+        }
+        return sum;
+    }
+}
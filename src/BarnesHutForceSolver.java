@@ -0,0 +1,269 @@
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * ForceSolver approximating the forces with a Barnes-Hut quadtree.
+ * The tree is rebuilt at every iteration over the particles of the current universe and the particles received
+ * from the other universes. A cell of the tree whose width is smaller than the opening angle times its distance to
+ * a particle acts on that particle as a single particle at its center of mass, so the cost of a force calculation
+ * is O(log N) instead of O(N). Forces are softened like those of the ForceKernel, so an opening angle of 0 opens
+ * every cell and gives the same forces as the DirectForceSolver with the same softening up to rounding.
+ * The tree is stored in flat arrays that are reused between iterations.
+ */
+public class BarnesHutForceSolver implements ForceSolver {
+    private static final int MAX_DEPTH = 48; // particles closer than the cell width at this depth share a leaf
+    private static final int NONE = -1;
+
+    private double openingAngle; // opening angle theta as specified in initialspec.txt file
+    private double softeningSquared; // square of the softening length of the force
+
+    // flattened source particles of the current iteration, particles of the current universe come first
+    private double[] sourceX = new double[0], sourceY = new double[0], sourceMass = new double[0];
+    private int[] nextInLeaf = new int[0]; // next source particle sharing a leaf at the maximum depth
+    private int sourceCount;
+
+    // quadtree nodes, node 0 is the root
+    private double[] centerX = new double[0], centerY = new double[0], halfWidth = new double[0];
+    private double[] nodeMass = new double[0], massX = new double[0], massY = new double[0];
+    private int[] children = new int[0]; // four child nodes per node, NONE if the quadrant is empty
+    private int[] leafParticle = new int[0]; // first source particle of a leaf node, NONE for internal nodes
+    private boolean[] leaf = new boolean[0];
+    private int nodeCount;
+
+    private ThreadLocal<int[]> stacks = ThreadLocal.withInitial(() -> new int[3 * MAX_DEPTH + 8]);
+
+    /**
+     * Constructor for BarnesHutForceSolver objects
+     * @param openingAngle cells narrower than openingAngle times their distance to a particle are not opened
+     * @param softening softening length of the force
+     */
+    public BarnesHutForceSolver(double openingAngle, double softening) {
+        this.openingAngle = openingAngle;
+        double length = Math.max(softening, ForceKernel.MIN_SOFTENING);
+        this.softeningSquared = length * length;
+    }
+
+    @Override
+    public void prepare(ParticleStore particles, List<ParticleStore> halo) {
+        sourceCount = 0;
+        int total = particles.count;
+        for (ParticleStore store : halo) {
+            total += store.count;
+        }
+        ensureSourceCapacity(total);
+        addSources(particles);
+        for (ParticleStore store : halo) {
+            addSources(store);
+        }
+        buildTree();
+    }
+
+    @Override
+    public void computeForce(ParticleStore particles, int index) {
+        double mass = particles.mass[index];
+        double locX = particles.locX[index];
+        double locY = particles.locY[index];
+        double forceX = 0;
+        double forceY = 0;
+        int[] stack = stacks.get();
+        int top = 0;
+        if (nodeCount > 0) {
+            stack[top++] = 0;
+        }
+        while (top > 0) {
+            int node = stack[--top];
+            if (leaf[node]) {
+                for (int p = leafParticle[node]; p != NONE; p = nextInLeaf[p]) {
+                    if (p == index) continue; // particles of the current universe are the first sources
+                    double xLength = sourceX[p] - locX;
+                    double yLength = sourceY[p] - locY;
+                    double distanceSquared = xLength * xLength + yLength * yLength + softeningSquared;
+                    double weight = 3 * mass * sourceMass[p] / (distanceSquared * Math.sqrt(distanceSquared));
+                    forceX += xLength * weight;
+                    forceY += yLength * weight;
+                }
+                continue;
+            }
+            if (nodeMass[node] == 0) continue;
+            double comX = massX[node] / nodeMass[node];
+            double comY = massY[node] / nodeMass[node];
+            double xLength = comX - locX;
+            double yLength = comY - locY;
+            double distance = Math.sqrt(xLength * xLength + yLength * yLength);
+            if (2 * halfWidth[node] < openingAngle * distance && !contains(node, locX, locY)) {
+                double distanceSquared = distance * distance + softeningSquared;
+                double weight = 3 * mass * nodeMass[node] / (distanceSquared * Math.sqrt(distanceSquared));
+                forceX += xLength * weight;
+                forceY += yLength * weight;
+            } else {
+                for (int q = 3; q >= 0; q--) {
+                    int child = children[4 * node + q];
+                    if (child != NONE) {
+                        stack[top++] = child;
+                    }
+                }
+            }
+        }
+        particles.forceX[index] = forceX;
+        particles.forceY[index] = forceY;
+    }
+
+    @Override
+    public double getInteractionRange() {
+        return Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * Appends the particles of a store to the flattened source arrays
+     * @param store
+     */
+    private void addSources(ParticleStore store) {
+        System.arraycopy(store.locX, 0, sourceX, sourceCount, store.count);
+        System.arraycopy(store.locY, 0, sourceY, sourceCount, store.count);
+        System.arraycopy(store.mass, 0, sourceMass, sourceCount, store.count);
+        sourceCount += store.count;
+    }
+
+    /**
+     * Builds the quadtree over the current source particles, starting with a square root cell around all of them
+     */
+    private void buildTree() {
+        nodeCount = 0;
+        if (sourceCount == 0) return;
+        double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE;
+        double maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+        for (int p = 0; p < sourceCount; p++) {
+            minX = Math.min(minX, sourceX[p]);
+            minY = Math.min(minY, sourceY[p]);
+            maxX = Math.max(maxX, sourceX[p]);
+            maxY = Math.max(maxY, sourceY[p]);
+        }
+        double half = Math.max(Math.max(maxX - minX, maxY - minY) / 2, Double.MIN_NORMAL) * 1.000001;
+        createNode((minX + maxX) / 2, (minY + maxY) / 2, half);
+        for (int p = 0; p < sourceCount; p++) {
+            nextInLeaf[p] = NONE;
+            insert(p);
+        }
+    }
+
+    /**
+     * Inserts a source particle into the tree, splitting the leaf it lands in if that leaf is already taken
+     * @param p index of the source particle
+     */
+    private void insert(int p) {
+        int node = 0;
+        int depth = 0;
+        while (true) {
+            nodeMass[node] += sourceMass[p];
+            massX[node] += sourceMass[p] * sourceX[p];
+            massY[node] += sourceMass[p] * sourceY[p];
+            if (leaf[node]) {
+                int resident = leafParticle[node];
+                if (resident == NONE) {
+                    leafParticle[node] = p;
+                    return;
+                }
+                if (depth >= MAX_DEPTH) {
+                    nextInLeaf[p] = resident;
+                    leafParticle[node] = p;
+                    return;
+                }
+                // split the leaf and move its particle one level down
+                leaf[node] = false;
+                leafParticle[node] = NONE;
+                int child = childFor(node, resident);
+                nodeMass[child] += sourceMass[resident];
+                massX[child] += sourceMass[resident] * sourceX[resident];
+                massY[child] += sourceMass[resident] * sourceY[resident];
+                leafParticle[child] = resident;
+            }
+            node = childFor(node, p);
+            depth++;
+        }
+    }
+
+    /**
+     * Returns the child of a node in whose quadrant the given source particle lies, creating it if needed
+     * @param node
+     * @param p index of the source particle
+     * @return index of the child node
+     */
+    private int childFor(int node, int p) {
+        int quadrant = (sourceX[p] >= centerX[node] ? 1 : 0) + (sourceY[p] >= centerY[node] ? 2 : 0);
+        int child = children[4 * node + quadrant];
+        if (child == NONE) {
+            double quarter = halfWidth[node] / 2;
+            double x = centerX[node] + ((quadrant & 1) != 0 ? quarter : -quarter);
+            double y = centerY[node] + ((quadrant & 2) != 0 ? quarter : -quarter);
+            child = createNode(x, y, quarter);
+            children[4 * node + quadrant] = child;
+        }
+        return child;
+    }
+
+    /**
+     * Creates an empty leaf node
+     * @param x x coordinate of the center of the cell
+     * @param y y coordinate of the center of the cell
+     * @param half half of the width of the cell
+     * @return index of the new node
+     */
+    private int createNode(double x, double y, double half) {
+        ensureNodeCapacity(nodeCount + 1);
+        int node = nodeCount++;
+        centerX[node] = x;
+        centerY[node] = y;
+        halfWidth[node] = half;
+        nodeMass[node] = 0;
+        massX[node] = 0;
+        massY[node] = 0;
+        children[4 * node] = NONE;
+        children[4 * node + 1] = NONE;
+        children[4 * node + 2] = NONE;
+        children[4 * node + 3] = NONE;
+        leafParticle[node] = NONE;
+        leaf[node] = true;
+        return node;
+    }
+
+    /**
+     * @param node
+     * @param x
+     * @param y
+     * @return true if the point lies within the cell of the node
+     */
+    private boolean contains(int node, double x, double y) {
+        return Math.abs(x - centerX[node]) <= halfWidth[node] && Math.abs(y - centerY[node]) <= halfWidth[node];
+    }
+
+    /**
+     * Grows the source arrays so that the given number of source particles fit
+     * @param capacity
+     */
+    private void ensureSourceCapacity(int capacity) {
+        if (capacity <= sourceX.length) return;
+        int newCapacity = Math.max(capacity, sourceX.length * 2);
+        sourceX = new double[newCapacity];
+        sourceY = new double[newCapacity];
+        sourceMass = new double[newCapacity];
+        nextInLeaf = new int[newCapacity];
+    }
+
+    /**
+     * Grows the node arrays so that the given number of nodes fit, keeping the nodes built so far
+     * @param capacity
+     */
+    private void ensureNodeCapacity(int capacity) {
+        if (capacity <= centerX.length) return;
+        int newCapacity = Math.max(Math.max(capacity, centerX.length * 2), 64);
+        centerX = Arrays.copyOf(centerX, newCapacity);
+        centerY = Arrays.copyOf(centerY, newCapacity);
+        halfWidth = Arrays.copyOf(halfWidth, newCapacity);
+        nodeMass = Arrays.copyOf(nodeMass, newCapacity);
+        massX = Arrays.copyOf(massX, newCapacity);
+        massY = Arrays.copyOf(massY, newCapacity);
+        children = Arrays.copyOf(children, 4 * newCapacity);
+        leafParticle = Arrays.copyOf(leafParticle, newCapacity);
+        leaf = Arrays.copyOf(leaf, newCapacity);
+    }
+}
@@ -0,0 +1,245 @@
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * ForceSolver summing only the forces of particles closer than a cutoff radius.
+ * At every iteration the particles of the current universe and the particles received from other universes are
+ * sorted into a uniform grid of cells at least as wide as the cutoff. The grid only spans the bounding box of the
+ * particles of the current universe grown by the cutoff, so its size follows the universe rather than the whole
+ * universe, and received particles outside it, which are out of reach, are left out. Along a side where that box
+ * covers the whole universe the grid covers it instead and wraps around. The force on a particle is then summed
+ * over its own cell and the eight cells around it only, so the cost of a force calculation is proportional to the
+ * number of particles within the cutoff rather than to N.
+ * Distances are taken to the nearest periodic image, so particles received from across the edge of the universe
+ * pull in the direction they are physically closest in. Forces are softened like those of the ForceKernel.
+ * The cells are stored in flat arrays that are reused between iterations.
+ */
+public class CellListForceSolver implements ForceSolver {
+    private static final int MAX_CELLS_PER_SIDE = 1024;
+
+    private double cutoff; // cutoff radius of the force
+    private double softeningSquared; // square of the softening length of the force
+    private double width, height; // size of the whole universe
+    private int cellsX, cellsY; // number of cells of the grid along the width and the height
+    private double cellWidth, cellHeight; // size of a cell
+    private double originX, originY; // lower corner of the grid
+    private double spanX, spanY; // size of the grid
+    private boolean wrapX, wrapY; // true along a side where the grid covers the whole universe and wraps around
+
+    // source particles of the current iteration sorted by cell, particles of the current universe are sources 0 to
+    // particles.count - 1 before sorting
+    private double[] sourceX = new double[0], sourceY = new double[0], sourceMass = new double[0];
+    private int[] sourceIndex = new int[0]; // index of every sorted source particle before sorting
+    private int[] sourceCell = new int[0]; // cell of every source particle before sorting
+    private int sourceCount;
+    private int[] cellStart = new int[0]; // first sorted source particle of every cell, cellStart[cells] is sourceCount
+
+    /**
+     * Constructor for CellListForceSolver objects
+     * @param cutoff cutoff radius of the force
+     * @param width width of the whole universe
+     * @param height height of the whole universe
+     * @param softening softening length of the force
+     */
+    public CellListForceSolver(double cutoff, double width, double height, double softening) {
+        this.cutoff = cutoff;
+        double length = Math.max(softening, ForceKernel.MIN_SOFTENING);
+        this.softeningSquared = length * length;
+        this.width = width;
+        this.height = height;
+    }
+
+    @Override
+    public void prepare(ParticleStore particles, List<ParticleStore> halo) {
+        int total = particles.count;
+        for (ParticleStore store : halo) {
+            total += store.count;
+        }
+        ensureSourceCapacity(total);
+        placeGrid(particles);
+        int cells = cellsX * cellsY;
+        if (cellStart.length < cells + 1) {
+            cellStart = new int[cells + 1];
+        }
+        // count the particles of every cell, then place each particle at the next free slot of its cell
+        Arrays.fill(cellStart, 0, cells + 1, 0);
+        int next = countCells(particles, 0);
+        for (ParticleStore store : halo) {
+            next = countCells(store, next);
+        }
+        int start = 0;
+        for (int c = 0; c <= cells; c++) {
+            int count = cellStart[c];
+            cellStart[c] = start;
+            start += count;
+        }
+        sourceCount = start;
+        next = placeSources(particles, 0);
+        for (ParticleStore store : halo) {
+            next = placeSources(store, next);
+        }
+        // placing advanced every cell start to the start of the next cell, shift them back
+        for (int c = cells; c > 0; c--) {
+            cellStart[c] = cellStart[c - 1];
+        }
+        cellStart[0] = 0;
+    }
+
+    @Override
+    public void computeForce(ParticleStore particles, int index) {
+        double mass = particles.mass[index];
+        double locX = particles.locX[index];
+        double locY = particles.locY[index];
+        double cutoffSquared = cutoff * cutoff;
+        double halfWidth = width / 2;
+        double halfHeight = height / 2;
+        int cellX = cellOf(locX - originX, cellWidth, cellsX, spanX, width);
+        int cellY = cellOf(locY - originY, cellHeight, cellsY, spanY, height);
+        // a grid that wraps around with fewer than three cells along a side has every cell along it as a neighbour,
+        // so visit each of them once, and a grid that does not wrap has no cells beyond its edges
+        int firstX = wrapX ? (cellsX >= 3 ? cellX - 1 : 0) : Math.max(cellX - 1, 0);
+        int lastX = wrapX ? (cellsX >= 3 ? cellX + 1 : cellsX - 1) : Math.min(cellX + 1, cellsX - 1);
+        int firstY = wrapY ? (cellsY >= 3 ? cellY - 1 : 0) : Math.max(cellY - 1, 0);
+        int lastY = wrapY ? (cellsY >= 3 ? cellY + 1 : cellsY - 1) : Math.min(cellY + 1, cellsY - 1);
+        double forceX = 0;
+        double forceY = 0;
+        for (int gridY = firstY; gridY <= lastY; gridY++) {
+            int y = Math.floorMod(gridY, cellsY);
+            for (int gridX = firstX; gridX <= lastX; gridX++) {
+                int x = Math.floorMod(gridX, cellsX);
+                int cell = y * cellsX + x;
+                for (int p = cellStart[cell]; p < cellStart[cell + 1]; p++) {
+                    if (sourceIndex[p] == index) continue;
+                    double xLength = sourceX[p] - locX;
+                    double yLength = sourceY[p] - locY;
+                    if (xLength > halfWidth) xLength -= width;
+                    else if (xLength < -halfWidth) xLength += width;
+                    if (yLength > halfHeight) yLength -= height;
+                    else if (yLength < -halfHeight) yLength += height;
+                    double distanceSquared = xLength * xLength + yLength * yLength;
+                    if (distanceSquared > cutoffSquared) continue;
+                    double softened = distanceSquared + softeningSquared;
+                    double weight = 3 * mass * sourceMass[p] / (softened * Math.sqrt(softened));
+                    forceX += xLength * weight;
+                    forceY += yLength * weight;
+                }
+            }
+        }
+        particles.forceX[index] = forceX;
+        particles.forceY[index] = forceY;
+    }
+
+    @Override
+    public double getInteractionRange() {
+        return cutoff;
+    }
+
+    /**
+     * Places the grid over the bounding box of the particles of the current universe grown by the cutoff, or over
+     * the whole universe along a side where that box covers it
+     * @param particles particles of the current universe
+     */
+    private void placeGrid(ParticleStore particles) {
+        double minX = Double.POSITIVE_INFINITY, maxX = Double.NEGATIVE_INFINITY;
+        double minY = Double.POSITIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < particles.count; i++) {
+            minX = Math.min(minX, particles.locX[i]);
+            maxX = Math.max(maxX, particles.locX[i]);
+            minY = Math.min(minY, particles.locY[i]);
+            maxY = Math.max(maxY, particles.locY[i]);
+        }
+        if (particles.count == 0) {
+            // nothing to compute a force on, a single cell takes every source
+            minX = maxX = minY = maxY = 0;
+        }
+        spanX = maxX - minX + 2 * cutoff;
+        spanY = maxY - minY + 2 * cutoff;
+        wrapX = spanX >= width;
+        wrapY = spanY >= height;
+        if (wrapX) {
+            originX = 0;
+            spanX = width;
+        } else {
+            originX = minX - cutoff;
+        }
+        if (wrapY) {
+            originY = 0;
+            spanY = height;
+        } else {
+            originY = minY - cutoff;
+        }
+        cellsX = (int)Math.max(1, Math.min(MAX_CELLS_PER_SIDE, Math.floor(spanX / cutoff)));
+        cellsY = (int)Math.max(1, Math.min(MAX_CELLS_PER_SIDE, Math.floor(spanY / cutoff)));
+        cellWidth = spanX / cellsX;
+        cellHeight = spanY / cellsY;
+    }
+
+    /**
+     * Counts the particles of a store into the cells they lie in, leaving out those outside the grid
+     * @param store
+     * @param next index of the first particle of the store among all source particles
+     * @return index of the first particle of the next store
+     */
+    private int countCells(ParticleStore store, int next) {
+        for (int i = 0; i < store.count; i++) {
+            int cellX = cellOf(store.locX[i] - originX, cellWidth, cellsX, spanX, width);
+            int cellY = cellOf(store.locY[i] - originY, cellHeight, cellsY, spanY, height);
+            int cell = cellX < 0 || cellY < 0 ? -1 : cellY * cellsX + cellX;
+            sourceCell[next + i] = cell;
+            if (cell >= 0) {
+                cellStart[cell]++;
+            }
+        }
+        return next + store.count;
+    }
+
+    /**
+     * Copies the particles of a store into the free slots of their cells
+     * @param store
+     * @param next index of the first particle of the store among all source particles
+     * @return index of the first particle of the next store
+     */
+    private int placeSources(ParticleStore store, int next) {
+        for (int i = 0; i < store.count; i++) {
+            if (sourceCell[next + i] < 0) continue;
+            int slot = cellStart[sourceCell[next + i]]++;
+            sourceX[slot] = store.locX[i];
+            sourceY[slot] = store.locY[i];
+            sourceMass[slot] = store.mass[i];
+            sourceIndex[slot] = next + i;
+        }
+        return next + store.count;
+    }
+
+    /**
+     * @param offset x or y coordinate relative to the lower corner of the grid
+     * @param cellSize width or height of a cell
+     * @param cells number of cells of the grid along the width or height
+     * @param span width or height of the grid
+     * @param length width or height of the whole universe
+     * @return the cell column or row of the coordinate, -1 if it lies outside the grid
+     */
+    private static int cellOf(double offset, double cellSize, int cells, double span, double length) {
+        // the periodic image of the coordinate just above the lower corner
+        if (offset < 0 || offset >= length) {
+            offset -= length * Math.floor(offset / length);
+        }
+        int cell = (int)Math.floor(offset / cellSize);
+        if (cell < cells) return cell;
+        return offset <= span ? cells - 1 : -1;
+    }
+
+    /**
+     * Grows the source arrays so that the given number of source particles fit
+     * @param capacity
+     */
+    private void ensureSourceCapacity(int capacity) {
+        if (capacity <= sourceX.length) return;
+        int newCapacity = Math.max(capacity, sourceX.length * 2);
+        sourceX = new double[newCapacity];
+        sourceY = new double[newCapacity];
+        sourceMass = new double[newCapacity];
+        sourceIndex = new int[newCapacity];
+        sourceCell = new int[newCapacity];
+    }
+}
@@ -0,0 +1,258 @@
+import mpi.MPIException;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Class writing and reading coordinated checkpoints of the whole simulation.
+ * A checkpoint is a directory named after the iteration it was taken at, holding one file per process:
+ *   int magic, int version, int rank, int number of processes, int iteration, int length,
+ *   and a HaloCodec message of the given length holding the particles of the process,
+ * plus a COMPLETE file that the process with rank 0 writes once every process has written its file:
+ *   number of processes, iteration
+ *   xCuts of the decomposition
+ *   yCuts of the decomposition
+ * A checkpoint without the COMPLETE file was interrupted and is never restarted from.
+ * With the same number of processes every process reads back its own file and the cuts of the decomposition. With a
+ * different number of processes every process reads every file and keeps the particles that lie in its universe.
+ * Either way the whole universe keeps its size, which is the last of the xCuts and yCuts.
+ */
+public class Checkpoint {
+    static final int MAGIC = 0x434B5054; // "CKPT"
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 24;
+    static final String COMPLETE = "COMPLETE";
+
+    private String prefix; // directory name of the checkpoints, followed by the iteration
+    private Communicator communicator; // communication with the other processes
+    private ByteBuffer buffer; // encoded particles, reused between checkpoints
+    private String previous; // directory of the last complete checkpoint, removed once the next one is complete
+
+    /**
+     * Constructor for Checkpoint objects
+     * @param prefix directory name of the checkpoints, followed by the iteration
+     * @param communicator communication with the other processes
+     */
+    public Checkpoint(String prefix, Communicator communicator) {
+        this.prefix = prefix;
+        this.communicator = communicator;
+    }
+
+    /**
+     * Writes the particles of the current process into a new checkpoint. Every process calls this at the same
+     * iteration, and the checkpoint is marked complete only if every process managed to write its file.
+     * The previous checkpoint is removed once the new one is complete.
+     * @param iteration iteration the particles are at
+     * @param particles particles of the current universe
+     * @param decomposition decomposition of the whole universe between the processes
+     * @throws MPIException
+     */
+    public void write(int iteration, ParticleStore particles, Decomposition decomposition) throws MPIException {
+        int rank = communicator.getRank();
+        int size = communicator.getSize();
+        String directory = directoryOf(iteration);
+        double[] written = {0};
+        try {
+            Files.createDirectories(Paths.get(directory));
+            buffer = HaloCodec.encode(particles, rank, buffer);
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(VERSION).putInt(rank).putInt(size).putInt(iteration).putInt(buffer.limit());
+            header.flip();
+            try (FileChannel channel = FileChannel.open(Paths.get(directory, rank + ".bin"), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                while (header.hasRemaining()) {
+                    channel.write(header);
+                }
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(false);
+            }
+            written[0] = 1;
+        } catch (IOException e) {
+            System.out.println(e);
+        }
+
+        // the sum doubles as a barrier, so rank 0 only marks the checkpoint complete once every file is written
+        double[] total = new double[1];
+        communicator.allReduceSum(written, total, 1);
+        if (rank != 0 || total[0] != size) return;
+        try {
+            String complete = size + " " + iteration + "\n" + join(decomposition.getXCuts()) + "\n"
+                    + join(decomposition.getYCuts()) + "\n";
+            Files.write(Paths.get(directory, COMPLETE), complete.getBytes(StandardCharsets.US_ASCII));
+            if (previous != null) {
+                delete(new File(previous));
+            }
+            previous = directory;
+        } catch (IOException e) {
+            System.out.println(e);
+        }
+    }
+
+    /**
+     * Reads the particles of the current universe back from a complete checkpoint
+     * @param iteration iteration of the checkpoint, as found by latest
+     * @param particles store to add the particles to
+     * @param decomposition decomposition of the whole universe, its cuts are restored if the number of processes is
+     *                      the same as when the checkpoint was written
+     * @throws IOException
+     */
+    public void read(int iteration, ParticleStore particles, Decomposition decomposition) throws IOException {
+        int rank = communicator.getRank();
+        String directory = directoryOf(iteration);
+        List<String> complete = Files.readAllLines(Paths.get(directory, COMPLETE), StandardCharsets.US_ASCII);
+        int writtenSize = Integer.parseInt(complete.get(0).trim().split("\\s+")[0]);
+        ParticleStore received = new ParticleStore();
+        if (writtenSize == communicator.getSize()) {
+            decomposition.setCuts(parse(complete.get(1)), parse(complete.get(2)));
+            readFile(directory, rank, received);
+            for (int i = 0; i < received.count; i++) {
+                particles.addFrom(received, i);
+            }
+            return;
+        }
+        for (int r = 0; r < writtenSize; r++) {
+            readFile(directory, r, received);
+            for (int i = 0; i < received.count; i++) {
+                if (decomposition.contains(rank, received.locX[i], received.locY[i])) {
+                    particles.addFrom(received, i);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the size of the whole universe from a complete checkpoint, so that a restart on a different number of
+     * processes divides the same universe
+     * @param iteration iteration of the checkpoint, as found by latest
+     * @return width and height of the whole universe
+     * @throws IOException
+     */
+    public double[] readSize(int iteration) throws IOException {
+        List<String> complete = Files.readAllLines(Paths.get(directoryOf(iteration), COMPLETE),
+                StandardCharsets.US_ASCII);
+        double[] xCuts = parse(complete.get(1));
+        double[] yCuts = parse(complete.get(2));
+        return new double[] {xCuts[xCuts.length - 1], yCuts[yCuts.length - 1]};
+    }
+
+    /**
+     * Finds the latest checkpoint that every process finished writing
+     * @return iteration of the checkpoint, -1 if there is none
+     */
+    public int latest() {
+        File parent = new File(prefix).getAbsoluteFile().getParentFile();
+        String name = new File(prefix).getName();
+        File[] directories = parent.listFiles();
+        int latest = -1;
+        if (directories == null) return latest;
+        for (File directory : directories) {
+            String fileName = directory.getName();
+            if (!directory.isDirectory() || !fileName.startsWith(name)) continue;
+            try {
+                int iteration = Integer.parseInt(fileName.substring(name.length()));
+                if (iteration > latest && new File(directory, COMPLETE).isFile()) {
+                    latest = iteration;
+                }
+            } catch (NumberFormatException e) {
+                // some other directory starting with the same name
+            }
+        }
+        if (latest >= 0) {
+            previous = directoryOf(latest);
+        }
+        return latest;
+    }
+
+    /**
+     * Reads the file of one process of a checkpoint
+     * @param directory
+     * @param fileRank rank of the process that wrote the file
+     * @param particles store to decode into, its contents are replaced
+     * @throws IOException
+     */
+    private void readFile(String directory, int fileRank, ParticleStore particles) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(directory, fileRank + ".bin"), StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(channel, header);
+            if (header.getInt(0) != MAGIC) {
+                throw new IOException(directory + "/" + fileRank + ".bin is not a checkpoint file");
+            }
+            int version = header.getInt(4);
+            if (version != VERSION) {
+                throw new IOException("Unsupported checkpoint version " + version);
+            }
+            int length = header.getInt(20);
+            buffer = HaloCodec.ensureCapacity(buffer, length);
+            buffer.limit(length);
+            readFully(channel, buffer);
+            HaloCodec.decode(buffer, particles);
+        }
+    }
+
+    /**
+     * Reads from the channel until the buffer is full
+     * @param channel
+     * @param buffer
+     * @throws IOException if the file ends first
+     */
+    private static void readFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new IOException("Checkpoint file is truncated");
+            }
+        }
+    }
+
+    /**
+     * @param iteration
+     * @return directory of the checkpoint taken at the given iteration
+     */
+    private String directoryOf(int iteration) {
+        return prefix + String.format("%06d", iteration);
+    }
+
+    /**
+     * Removes a checkpoint directory and the files in it
+     * @param directory
+     */
+    private static void delete(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    /**
+     * @param values
+     * @return the values separated by spaces, exactly as they are parsed back
+     */
+    private static String join(double[] values) {
+        String joined = "";
+        for (double value : values) {
+            joined += Double.toString(value) + " ";
+        }
+        return joined.trim();
+    }
+
+    /**
+     * @param line values separated by spaces
+     * @return the values
+     */
+    private static double[] parse(String line) {
+        return Arrays.stream(line.trim().split("\\s+")).mapToDouble(Double::parseDouble).toArray();
+    }
+}
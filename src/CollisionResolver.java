@@ -0,0 +1,408 @@
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Class merging particles that touch, which is when their distance is below the sum of their radii.
+ * Candidate pairs are found with a spatial hash: every particle of the current universe and every ghost is put into
+ * the cell of a uniform periodic grid with cells as wide as the largest diameter of the small particles, and only
+ * particles in the same and the eight cells around are compared. The cells are hashed into a table sized to the
+ * number of particles, so memory does not grow with the size of the universe. The few particles wider than that,
+ * which are large particles, are left out of the grid and compared with every particle instead, so they do not make
+ * the cells of every small particle wider.
+ * Every particle touching a particle of higher priority, which is a larger mass and then a smaller id, is aimed at the
+ * touching particle of highest priority. A particle is absorbed by the particle it is aimed at if that one is not
+ * aimed at another particle itself, so chains of touching particles merge over several iterations and no mass is
+ * ever passed along twice. The survivor keeps its id and takes the total mass and momentum, the centre of mass, and
+ * the radius of the summed areas.
+ * Collisions are resolved right after an exchange, when every ghost is an exact copy of a particle of another
+ * process. Only particles whose radii, merged, stay below a limit may merge, so every particle a decision depends on
+ * is within 4 times the limit of the particle absorbed. The limit is a few times the largest radius of any particle,
+ * agreed by every process at every export, so the ghosts only reach a few diameters further than without
+ * collisions. As long as the ghosts reach that far beyond the universe,
+ * both processes of a pair see the same particles around it and take the same decision, so a particle is removed by
+ * its own process exactly when the process of the survivor adds its mass. The ghosts and replicated large particles
+ * are merged the same way, so that the forces of the iteration neither count an absorbed particle twice nor miss the
+ * mass it handed over.
+ */
+public class CollisionResolver {
+    private static final int MAX_CELLS_PER_SIDE = 1 << 20;
+    private static final double HEADROOM = 2; // limit over the largest radius, room to absorb three of its own size
+
+    private double width, height; // size of the whole universe
+    private double horizonRadius; // largest limit the ghosts of the processes in the horizon can reach
+    private double maxRadius; // largest radius a merged particle may have
+    private int count; // number of candidates
+    private double[] x = new double[0], y = new double[0], radius = new double[0], mass = new double[0];
+    private double[] velocityX = new double[0], velocityY = new double[0];
+    private long[] id = new long[0];
+    private boolean[] large = new boolean[0];
+    private int[] owner = new int[0]; // index of every candidate in the current universe, -1 for ghosts
+    private int[] target = new int[0]; // candidate every candidate is aimed at, -1 if none
+    private int[] next = new int[0]; // next candidate in the same bucket of the hash table
+    private int[] buckets = new int[0]; // first candidate of every bucket, -1 if empty
+    private int mask; // size of the hash table minus 1
+    private int cellsX, cellsY; // number of cells of the grid along the width and height of the universe
+    private double cellWidth, cellHeight; // size of a cell of the grid
+    private int[] wide = new int[0]; // candidates too wide for the cells of the grid
+    private int wideCount; // number of candidates too wide for the cells of the grid
+    private ParticleStore[] source = new ParticleStore[0]; // store of every ghost or replicated large candidate
+    private int[] sourceIndex = new int[0]; // index of every candidate in its source store
+    private boolean[] merged = new boolean[0]; // true for candidates that absorbed another one
+    private boolean[] absorbed = new boolean[0]; // true for particles of the current universe that were absorbed
+    private HashMap<Long, Integer> localLarge = new HashMap<>(); // index of every local large particle by id
+    private long merges; // particles absorbed by the current process over the run
+
+    /**
+     * Constructor for CollisionResolver objects
+     * @param width width of the whole universe
+     * @param height height of the whole universe
+     * @param horizonRadius largest radius a merged particle may have for the ghosts to come from processes in the
+     *                      horizon, infinite if every decision is taken by a single process
+     */
+    public CollisionResolver(double width, double height, double horizonRadius) {
+        this.width = width;
+        this.height = height;
+        this.horizonRadius = horizonRadius;
+        this.maxRadius = horizonRadius;
+    }
+
+    /**
+     * Sets the limit of the merged radii from the largest radius of any particle, before the ghosts are picked.
+     * Every process must pass the same radius, so that they all take the same decisions.
+     * @param largestRadius largest radius of the particles of every process
+     */
+    public void setLargestRadius(double largestRadius) {
+        if (horizonRadius == Double.POSITIVE_INFINITY) return;
+        maxRadius = Math.min(horizonRadius, HEADROOM * largestRadius);
+    }
+
+    /**
+     * @return distance beyond the universe the ghosts need to reach for every process to take the same decisions
+     */
+    public double getInteractionRange() {
+        return 4 * maxRadius;
+    }
+
+    /**
+     * Merges the touching particles of the current universe, the ghosts and the replicated large particles, removing
+     * the absorbed ones from their stores. Particles appended after the resident ones were handed over at the last
+     * export, so no other process has them as ghosts, and they are left for the next iteration, except for large
+     * particles that are replicated, which every process gathered before they were handed over.
+     * @param particles particles of the current universe
+     * @param resident number of particles of the current universe that were in it at the last export
+     * @param ghosts particles received from the processes in the horizon
+     * @param replicatedLarge large particles of every process if they are replicated on every process, else null
+     * @return number of particles of the current universe absorbed
+     */
+    public int resolve(ParticleStore particles, int resident, List<ParticleStore> ghosts,
+                       ParticleStore replicatedLarge) {
+        count = 0;
+        int total = resident + (replicatedLarge != null ? replicatedLarge.count : 0);
+        for (ParticleStore store : ghosts) {
+            total += store.count;
+        }
+        ensureCapacity(Math.max(total, particles.count));
+        localLarge.clear();
+        for (int i = 0; i < particles.count; i++) {
+            if (replicatedLarge != null && particles.large[i]) {
+                // the copy among the replicated large particles stands for it
+                localLarge.put(particles.id[i], i);
+            } else if (i < resident) {
+                addCandidate(null, i, i, particles);
+            }
+        }
+        if (replicatedLarge != null) {
+            for (int i = 0; i < replicatedLarge.count; i++) {
+                Integer local = localLarge.get(replicatedLarge.id[i]);
+                addCandidate(replicatedLarge, i, local != null ? local : -1, replicatedLarge);
+            }
+        }
+        for (ParticleStore store : ghosts) {
+            for (int i = 0; i < store.count; i++) {
+                addCandidate(store, i, -1, store);
+            }
+        }
+
+        findTargets();
+        return merge(particles);
+    }
+
+    /**
+     * @return number of particles of the current universe absorbed over the run
+     */
+    public long getMerges() {
+        return merges;
+    }
+
+    /**
+     * Aims every candidate at the touching candidate of highest priority above its own that it may merge with.
+     * The cells are sized from the small particles, so every pair of candidates in the grid that touches is in
+     * neighbouring cells, and every pair with a wide candidate is compared directly.
+     */
+    private void findTargets() {
+        double cellRadius = 0;
+        for (int c = 0; c < count; c++) {
+            if (!large[c]) cellRadius = Math.max(cellRadius, radius[c]);
+        }
+        wideCount = 0;
+        Arrays.fill(target, 0, count, -1);
+        for (int c = 0; c < count; c++) {
+            if (radius[c] <= cellRadius) continue;
+            wide[wideCount++] = c;
+            int best = -1;
+            for (int o = 0; o < count; o++) {
+                best = better(c, o, best);
+            }
+            target[c] = best;
+        }
+        // particles without a radius only touch wide ones, so they need no grid
+        if (cellRadius > 0) {
+            fillGrid(cellRadius);
+        }
+
+        // with fewer than three cells along a side every cell along it is a neighbour, so visit each of them once
+        int spanX = Math.min(cellsX, 3);
+        int spanY = Math.min(cellsY, 3);
+        for (int c = 0; c < count; c++) {
+            if (radius[c] > cellRadius) continue;
+            int best = -1;
+            if (cellRadius > 0) {
+                int cellX = cellOf(x[c], cellWidth, cellsX);
+                int cellY = cellOf(y[c], cellHeight, cellsY);
+                for (int dy = 0; dy < spanY; dy++) {
+                    int neighbourY = Math.floorMod(cellY + dy - (spanY == 3 ? 1 : 0), cellsY);
+                    for (int dx = 0; dx < spanX; dx++) {
+                        int neighbourX = Math.floorMod(cellX + dx - (spanX == 3 ? 1 : 0), cellsX);
+                        for (int o = buckets[bucketOf(neighbourX, neighbourY)]; o >= 0; o = next[o]) {
+                            best = better(c, o, best);
+                        }
+                    }
+                }
+            }
+            for (int w = 0; w < wideCount; w++) {
+                best = better(c, wide[w], best);
+            }
+            target[c] = best;
+        }
+    }
+
+    /**
+     * Puts every candidate that is not too wide into a grid with cells at least as wide as the given diameter
+     * @param cellRadius largest radius of the candidates in the grid
+     */
+    private void fillGrid(double cellRadius) {
+        cellsX = (int)Math.max(1, Math.min(MAX_CELLS_PER_SIDE, Math.floor(width / (2 * cellRadius))));
+        cellsY = (int)Math.max(1, Math.min(MAX_CELLS_PER_SIDE, Math.floor(height / (2 * cellRadius))));
+        cellWidth = width / cellsX;
+        cellHeight = height / cellsY;
+        int tableSize = Integer.highestOneBit(Math.max(count, 1)) * 2;
+        if (buckets.length < tableSize) {
+            buckets = new int[tableSize];
+        }
+        Arrays.fill(buckets, 0, tableSize, -1);
+        mask = tableSize - 1;
+        for (int c = 0; c < count; c++) {
+            if (radius[c] > cellRadius) continue;
+            int bucket = bucketOf(cellOf(x[c], cellWidth, cellsX), cellOf(y[c], cellHeight, cellsY));
+            next[c] = buckets[bucket];
+            buckets[bucket] = c;
+        }
+    }
+
+    /**
+     * @param c candidate looking for a target
+     * @param o other candidate
+     * @param best target of highest priority found so far, -1 if none
+     * @return the other candidate if candidate c may be aimed at it and it outranks the best so far, else the best
+     */
+    private int better(int c, int o, int best) {
+        if (!outranks(o, c) || (best >= 0 && !outranks(o, best))) return best;
+        return touches(c, o) && Math.hypot(radius[c], radius[o]) <= maxRadius ? o : best;
+    }
+
+    /**
+     * Absorbs every candidate whose target is not aimed at another candidate into its target, then writes the
+     * survivors back to their stores and removes the absorbed candidates from them
+     * @param particles particles of the current universe
+     * @return number of particles of the current universe absorbed
+     */
+    private int merge(ParticleStore particles) {
+        Arrays.fill(absorbed, 0, particles.count, false);
+        Arrays.fill(merged, 0, count, false);
+        boolean any = false;
+        for (int c = 0; c < count; c++) {
+            int t = target[c];
+            if (t < 0 || target[t] >= 0) continue;
+            // merged one candidate at a time, in candidate order
+            double totalMass = mass[t] + mass[c];
+            // two massless tracers meet half way
+            double share = totalMass == 0 ? 0.5 : mass[c] / totalMass;
+            velocityX[t] += share * (velocityX[c] - velocityX[t]);
+            velocityY[t] += share * (velocityY[c] - velocityY[t]);
+            x[t] = wrap(x[t] + share * periodic(x[c] - x[t], width), width);
+            y[t] = wrap(y[t] + share * periodic(y[c] - y[t], height), height);
+            radius[t] = Math.hypot(radius[t], radius[c]);
+            mass[t] = totalMass;
+            large[t] |= large[c];
+            merged[t] = true;
+            any = true;
+        }
+        if (!any) return 0;
+
+        int removed = 0;
+        // from the end, so that the particle swapped into a removed one's place has already been looked at
+        for (int c = count - 1; c >= 0; c--) {
+            int t = target[c];
+            if (t >= 0 && target[t] < 0) {
+                if (owner[c] >= 0) {
+                    absorbed[owner[c]] = true;
+                    removed++;
+                }
+                if (source[c] != null) {
+                    source[c].remove(sourceIndex[c]);
+                }
+            } else if (merged[c]) {
+                if (owner[c] >= 0) {
+                    writeBack(c, particles, owner[c]);
+                }
+                if (source[c] != null) {
+                    writeBack(c, source[c], sourceIndex[c]);
+                }
+            }
+        }
+        for (int i = particles.count - 1; i >= 0; i--) {
+            if (!absorbed[i]) continue;
+            absorbed[i] = absorbed[particles.count - 1];
+            particles.remove(i);
+        }
+        merges += removed;
+        return removed;
+    }
+
+    /**
+     * Copies a survivor to a store
+     * @param c candidate of the survivor
+     * @param store
+     * @param index index of the survivor in the store
+     */
+    private void writeBack(int c, ParticleStore store, int index) {
+        store.locX[index] = x[c];
+        store.locY[index] = y[c];
+        store.radius[index] = radius[c];
+        store.mass[index] = mass[c];
+        store.velocityX[index] = velocityX[c];
+        store.velocityY[index] = velocityY[c];
+        store.large[index] = large[c];
+    }
+
+    /**
+     * @param a
+     * @param b
+     * @return true if candidate a has a higher priority than candidate b, which is a larger mass, then a smaller id
+     */
+    private boolean outranks(int a, int b) {
+        return mass[a] > mass[b] || (mass[a] == mass[b] && id[a] < id[b]);
+    }
+
+    /**
+     * @param a
+     * @param b
+     * @return true if the distance between the candidates, to the nearest periodic image, is below their radii
+     */
+    private boolean touches(int a, int b) {
+        double xLength = periodic(x[b] - x[a], width);
+        double yLength = periodic(y[b] - y[a], height);
+        double reach = radius[a] + radius[b];
+        return xLength * xLength + yLength * yLength < reach * reach;
+    }
+
+    /**
+     * @param length difference of two coordinates
+     * @param size width or height of the whole universe
+     * @return the difference to the nearest periodic image
+     */
+    private static double periodic(double length, double size) {
+        if (length > size / 2) return length - size;
+        if (length < -size / 2) return length + size;
+        return length;
+    }
+
+    /**
+     * @param location
+     * @param size width or height of the whole universe
+     * @return the location wrapped into the whole universe
+     */
+    private static double wrap(double location, double size) {
+        location %= size;
+        return location < 0 ? location + size : location;
+    }
+
+    /**
+     * @param location x or y coordinate within the universe
+     * @param cellSize width or height of a cell
+     * @param cells number of cells along the width or height of the universe
+     * @return the cell column or row of the coordinate
+     */
+    private static int cellOf(double location, double cellSize, int cells) {
+        return Math.floorMod((int)Math.floor(location / cellSize), cells);
+    }
+
+    /**
+     * @param cellX
+     * @param cellY
+     * @return bucket of the hash table holding the cell
+     */
+    private int bucketOf(int cellX, int cellY) {
+        long cell = (long)cellY * cellsX + cellX;
+        long hash = cell * 0x9E3779B97F4A7C15L;
+        return (int)(hash >>> 32) & mask;
+    }
+
+    /**
+     * Appends a particle to the candidates
+     * @param copy store of the copy of the particle that is not in the current universe, null if there is none
+     * @param index index of the particle in the store it is read from
+     * @param local index of the particle in the current universe, -1 for a ghost
+     * @param store store to read the particle from
+     */
+    private void addCandidate(ParticleStore copy, int index, int local, ParticleStore store) {
+        int c = count++;
+        source[c] = copy;
+        sourceIndex[c] = index;
+        x[c] = store.locX[index];
+        y[c] = store.locY[index];
+        radius[c] = store.radius[index];
+        mass[c] = store.mass[index];
+        velocityX[c] = store.velocityX[index];
+        velocityY[c] = store.velocityY[index];
+        id[c] = store.id[index];
+        large[c] = store.large[index];
+        owner[c] = local;
+    }
+
+    /**
+     * Grows the candidate arrays so that the given number of candidates fit
+     * @param capacity
+     */
+    private void ensureCapacity(int capacity) {
+        if (capacity <= x.length) return;
+        int newCapacity = Math.max(capacity, x.length * 2);
+        x = new double[newCapacity];
+        y = new double[newCapacity];
+        radius = new double[newCapacity];
+        mass = new double[newCapacity];
+        velocityX = new double[newCapacity];
+        velocityY = new double[newCapacity];
+        id = new long[newCapacity];
+        large = new boolean[newCapacity];
+        owner = new int[newCapacity];
+        target = new int[newCapacity];
+        next = new int[newCapacity];
+        wide = new int[newCapacity];
+        absorbed = new boolean[newCapacity];
+        merged = new boolean[newCapacity];
+        source = new ParticleStore[newCapacity];
+        sourceIndex = new int[newCapacity];
+    }
+}
@@ -0,0 +1,129 @@
+import mpi.MPIException;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Interface for the communication between the processes of the simulation.
+ * Every process is a rank of the communicator, either an MPI process or a thread of a single JVM.
+ * Messages are byte buffers sent from position 0 to their limit. Received messages are handed out through Message
+ * objects, whose buffer may be replaced by the communicator, so callers must always read message.buffer after a
+ * receive completes rather than the buffer they passed in.
+ * A buffer handed to send or iSend may be read by the receiving rank until it has completed the next exchange with
+ * the sending rank, so it must not be changed in the meantime.
+ */
+public interface Communicator {
+    int ANY_SOURCE = -1; // matches a message from any rank
+    int ANY_TAG = -1; // matches a message with any tag
+
+    /**
+     * @return rank of the current process
+     */
+    int getRank();
+
+    /**
+     * @return number of processes in the simulation
+     */
+    int getSize();
+
+    /**
+     * Lays the processes out in a periodic columns x rows grid whose ranks are numbered in row-major order.
+     * The processes may be renumbered so that neighbouring positions of the grid end up on the same node, so every
+     * process must call this at the same time and use the returned communicator for all communication afterwards.
+     * @param columns number of processes along the width of the grid
+     * @param rows number of processes along the height of the grid
+     * @return communicator of the grid
+     * @throws MPIException
+     */
+    Communicator createGrid(int columns, int rows) throws MPIException;
+
+    /**
+     * @param column column of the grid, wrapped around at the edges of the grid
+     * @param row row of the grid, wrapped around at the edges of the grid
+     * @return rank of the process at the given position of the grid created by createGrid
+     * @throws MPIException
+     */
+    int rankAt(int column, int row) throws MPIException;
+
+    /**
+     * Sends a message and returns once the buffer has been handed over
+     * @param buffer message from position 0 to its limit
+     * @param destination rank to send to
+     * @param tag
+     * @throws MPIException
+     */
+    void send(ByteBuffer buffer, int destination, int tag) throws MPIException;
+
+    /**
+     * Waits for a message, growing message.buffer to the size of the message if needed
+     * @param message receives the message into its buffer and is updated with its source, tag and size
+     * @param source rank to receive from, or ANY_SOURCE
+     * @param tag tag to receive, or ANY_TAG
+     * @throws MPIException
+     */
+    void receive(Message message, int source, int tag) throws MPIException;
+
+    /**
+     * Starts sending a message, which completes when waited for with waitAll or waitAny
+     * @param message handle of the send
+     * @param buffer message from position 0 to its limit
+     * @param destination rank to send to
+     * @param tag
+     * @throws MPIException
+     */
+    void iSend(Message message, ByteBuffer buffer, int destination, int tag) throws MPIException;
+
+    /**
+     * Starts receiving a message of known size, which completes when waited for with waitAll or waitAny
+     * @param message handle of the receive, its buffer is grown to the given size if needed
+     * @param bytes size of the message
+     * @param source rank to receive from
+     * @param tag
+     * @throws MPIException
+     */
+    void iRecv(Message message, int bytes, int source, int tag) throws MPIException;
+
+    /**
+     * Waits for one of the messages that have not completed yet
+     * @param messages handles started with iSend or iRecv
+     * @return index of the completed message, -1 if every message had completed already
+     * @throws MPIException
+     */
+    int waitAny(Message[] messages) throws MPIException;
+
+    /**
+     * Waits for every message to complete
+     * @param messages handles started with iSend or iRecv
+     * @throws MPIException
+     */
+    void waitAll(Message[] messages) throws MPIException;
+
+    /**
+     * Sums an array element-wise over every process
+     * @param send values of the current process, a different array than receive
+     * @param receive sums over every process
+     * @param count number of elements
+     * @throws MPIException
+     */
+    void allReduceSum(double[] send, double[] receive, int count) throws MPIException;
+
+    /**
+     * Takes the maximum of an array element-wise over every process
+     * @param send values of the current process, a different array than receive
+     * @param receive maximums over every process
+     * @param count number of elements
+     * @throws MPIException
+     */
+    void allReduceMax(double[] send, double[] receive, int count) throws MPIException;
+
+    /**
+     * Gathers blocks of different sizes from every process into an array on every process
+     * @param send block of the current process
+     * @param sendCount number of elements in the block of the current process
+     * @param receive array the blocks are gathered into
+     * @param counts number of elements in the block of each process
+     * @param displacements offset of the block of each process in the receive array
+     * @throws MPIException
+     */
+    void allGatherv(double[] send, int sendCount, double[] receive, int[] counts, int[] displacements)
+            throws MPIException;
+}
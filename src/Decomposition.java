@@ -0,0 +1,237 @@
+/**
+ * Class describing how the whole periodic universe is divided between the processes.
+ * The processes are laid out in a columns x rows grid in row-major order of their ranks, where any number of
+ * processes can be factored into columns * rows. The universe is cut into columns at xCuts and into rows at yCuts,
+ * and every process owns the rectangle where its column and row cross. Initially the cuts are evenly spaced; they are
+ * moved by the LoadBalancer, which leaves the neighbours of every process unchanged.
+ */
+public class Decomposition {
+    private int columns, rows; // number of processes along the width and the height of the grid of processes
+    private double width, height; // size of the whole universe
+    private double[] xCuts, yCuts; // bounds of the columns and rows of processes, from 0 to width and height
+
+    /**
+     * Constructor for Decomposition objects
+     * @param columns number of processes along the width of the universe
+     * @param rows number of processes along the height of the universe
+     * @param width width of the whole universe
+     * @param height height of the whole universe
+     */
+    public Decomposition(int columns, int rows, double width, double height) {
+        this.columns = columns;
+        this.rows = rows;
+        this.width = width;
+        this.height = height;
+        this.xCuts = new double[columns + 1];
+        this.yCuts = new double[rows + 1];
+        for (int i = 0; i <= columns; i++) {
+            xCuts[i] = i == columns ? width : i * width / columns;
+        }
+        for (int i = 0; i <= rows; i++) {
+            yCuts[i] = i == rows ? height : i * height / rows;
+        }
+    }
+
+    /**
+     * Creates the decomposition of a universe of the given size, or of gridSize x gridSize universes per process if
+     * no size is given.
+     * If the size of the universe is given, the processes are laid out to minimize the total perimeter of their
+     * universes, which is the amount of the universe that lies near a boundary between processes. Otherwise the grid
+     * of processes is made as close to square as possible.
+     * @param size number of processes in the simulation
+     * @param boxWidth width of the whole universe, 0 if not given
+     * @param boxHeight height of the whole universe, 0 if not given
+     * @param gridSize width and height of the universe of a process if the size of the whole universe is not given
+     * @return the decomposition
+     */
+    public static Decomposition create(int size, double boxWidth, double boxHeight, int gridSize) {
+        boolean boxGiven = boxWidth > 0 && boxHeight > 0;
+        int bestColumns = size;
+        double bestScore = Double.MAX_VALUE;
+        for (int columns = 1; columns <= size; columns++) {
+            if (size % columns != 0) continue;
+            int rows = size / columns;
+            double score = boxGiven
+                    ? boxWidth / columns + boxHeight / rows
+                    : Math.abs(columns - rows) - (columns >= rows ? 0.5 : 0);
+            if (score < bestScore) {
+                bestScore = score;
+                bestColumns = columns;
+            }
+        }
+        int bestRows = size / bestColumns;
+        if (boxGiven) {
+            return new Decomposition(bestColumns, bestRows, boxWidth, boxHeight);
+        }
+        return new Decomposition(bestColumns, bestRows, (double)gridSize * bestColumns, (double)gridSize * bestRows);
+    }
+
+    /**
+     * @param rank
+     * @return the row of the process in the grid of processes
+     */
+    public int getRow(int rank) {
+        return rank / columns;
+    }
+
+    /**
+     * @param rank
+     * @return the column of the process in the grid of processes
+     */
+    public int getColumn(int rank) {
+        return rank % columns;
+    }
+
+    /**
+     * @return number of processes along the width of the universe
+     */
+    public int getColumns() {
+        return columns;
+    }
+
+    /**
+     * @return number of processes along the height of the universe
+     */
+    public int getRows() {
+        return rows;
+    }
+
+    /**
+     * @return width of the whole universe
+     */
+    public double getWidth() {
+        return width;
+    }
+
+    /**
+     * @return height of the whole universe
+     */
+    public double getHeight() {
+        return height;
+    }
+
+    /**
+     * @return width of the universe of a process before any load balancing
+     */
+    public double getDomainWidth() {
+        return width / columns;
+    }
+
+    /**
+     * @return height of the universe of a process before any load balancing
+     */
+    public double getDomainHeight() {
+        return height / rows;
+    }
+
+    /**
+     * @return bounds of the columns of processes, from 0 to the width of the universe
+     */
+    public double[] getXCuts() {
+        return xCuts;
+    }
+
+    /**
+     * @return bounds of the rows of processes, from 0 to the height of the universe
+     */
+    public double[] getYCuts() {
+        return yCuts;
+    }
+
+    /**
+     * Moves the bounds of the columns and rows of processes
+     * @param xCuts new bounds of the columns, from 0 to the width of the universe
+     * @param yCuts new bounds of the rows, from 0 to the height of the universe
+     */
+    public void setCuts(double[] xCuts, double[] yCuts) {
+        System.arraycopy(xCuts, 0, this.xCuts, 0, columns + 1);
+        System.arraycopy(yCuts, 0, this.yCuts, 0, rows + 1);
+    }
+
+    /**
+     * @param rank
+     * @param x
+     * @param y
+     * @return true if the point lies in the universe of the process with the given rank
+     */
+    public boolean contains(int rank, double x, double y) {
+        int column = getColumn(rank);
+        int row = getRow(rank);
+        return x >= xCuts[column] && x < xCuts[column + 1] && y >= yCuts[row] && y < yCuts[row + 1];
+    }
+
+    /**
+     * @param x
+     * @param y
+     * @return rank of the process whose universe the point lies in, after wrapping it into the whole universe
+     */
+    public int rankOf(double x, double y) {
+        return slabOf(yCuts, rows, height, y) * columns + slabOf(xCuts, columns, width, x);
+    }
+
+    /**
+     * @param cuts bounds of the columns or rows of processes
+     * @param slabs number of columns or rows
+     * @param length width or height of the whole universe
+     * @param location coordinate of the point
+     * @return the column or row the coordinate lies in, after wrapping it into the whole universe
+     */
+    private static int slabOf(double[] cuts, int slabs, double length, double location) {
+        location -= Math.floor(location / length) * length;
+        int lower = 0, upper = slabs - 1;
+        while (lower < upper) {
+            int middle = (lower + upper + 1) / 2;
+            if (cuts[middle] <= location) {
+                lower = middle;
+            } else {
+                upper = middle - 1;
+            }
+        }
+        return lower;
+    }
+
+    /**
+     * @param rank
+     * @param x
+     * @param y
+     * @return distance from the point to the nearest periodic image of the universe of the process with the given rank,
+     * 0 if the point lies in it
+     */
+    public double distanceToDomain(int rank, double x, double y) {
+        int column = getColumn(rank);
+        int row = getRow(rank);
+        double xLength = periodicDistance(x, xCuts[column], xCuts[column + 1], width);
+        double yLength = periodicDistance(y, yCuts[row], yCuts[row + 1], height);
+        return Math.sqrt(xLength * xLength + yLength * yLength);
+    }
+
+    /**
+     * @param rank
+     * @param x
+     * @param y
+     * @return distance from a point in the universe of the process with the given rank to the nearest of its edges
+     */
+    public double distanceToBoundary(int rank, double x, double y) {
+        int column = getColumn(rank);
+        int row = getRow(rank);
+        return Math.min(Math.min(x - xCuts[column], xCuts[column + 1] - x),
+                Math.min(y - yCuts[row], yCuts[row + 1] - y));
+    }
+
+    /**
+     * @param location coordinate of the point
+     * @param lower lower bound of the interval
+     * @param upper upper bound of the interval
+     * @param length width or height of the whole universe
+     * @return distance from the coordinate to the nearest periodic image of the interval
+     */
+    private static double periodicDistance(double location, double lower, double upper, double length) {
+        double distance = Double.MAX_VALUE;
+        for (int image = -1; image <= 1; image++) {
+            double shifted = location + image * length;
+            double d = Math.max(0, Math.max(lower - shifted, shifted - upper));
+            distance = Math.min(distance, d);
+        }
+        return distance;
+    }
+}
@@ -0,0 +1,37 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * ForceSolver summing the force of every particle of the current and received universes on each particle.
+ * This is the exact O(N^2) method and serves as the reference the approximate solvers are compared against.
+ * The pairwise sums are left to a ForceKernel.
+ */
+public class DirectForceSolver implements ForceSolver {
+    private ArrayList<ParticleStore> sources = new ArrayList<>(); // stores acting on the particles
+    private ForceKernel kernel; // sums the forces of the sources on a particle
+
+    /**
+     * Constructor for DirectForceSolver objects
+     * @param kernel kernel summing the forces of the sources on a particle
+     */
+    public DirectForceSolver(ForceKernel kernel) {
+        this.kernel = kernel;
+    }
+
+    @Override
+    public void prepare(ParticleStore particles, List<ParticleStore> halo) {
+        sources.clear();
+        sources.add(particles);
+        sources.addAll(halo);
+    }
+
+    @Override
+    public void computeForce(ParticleStore particles, int index) {
+        kernel.computeForce(particles, index, sources);
+    }
+
+    @Override
+    public double getInteractionRange() {
+        return Double.POSITIVE_INFINITY;
+    }
+}
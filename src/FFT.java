@@ -0,0 +1,75 @@
+/**
+ * In-place radix-2 fast Fourier transform of a fixed power of two length.
+ * Complex values are stored interleaved (real part followed by imaginary part) and a transform can run over a
+ * strided sequence of an array, so that rows and columns of a row-major mesh can be transformed without copying.
+ * Transforms are not normalized, a forward transform followed by an inverse transform multiplies by the length.
+ */
+public class FFT {
+    private int n; // length of the transform
+    private int[] reversed; // bit reversed index of every index
+    private double[] cos, sin; // twiddle factors for the forward transform
+
+    /**
+     * Constructor for FFT objects
+     * @param n length of the transform, must be a power of two
+     */
+    public FFT(int n) {
+        if (n < 1 || (n & (n - 1)) != 0) {
+            throw new IllegalArgumentException("FFT length must be a power of two: " + n);
+        }
+        this.n = n;
+        this.reversed = new int[n];
+        int bits = Integer.numberOfTrailingZeros(n);
+        for (int i = 0; i < n; i++) {
+            reversed[i] = bits == 0 ? 0 : Integer.reverse(i) >>> (32 - bits);
+        }
+        this.cos = new double[n / 2 + 1];
+        this.sin = new double[n / 2 + 1];
+        for (int i = 0; i < cos.length; i++) {
+            cos[i] = Math.cos(2 * Math.PI * i / n);
+            sin[i] = -Math.sin(2 * Math.PI * i / n);
+        }
+    }
+
+    /**
+     * Transforms n complex values in place
+     * @param data interleaved complex values
+     * @param offset index of the complex value to start at, in complex values
+     * @param stride distance between consecutive values of the sequence, in complex values
+     * @param inverse true for the inverse transform
+     */
+    public void transform(double[] data, int offset, int stride, boolean inverse) {
+        for (int i = 0; i < n; i++) {
+            int j = reversed[i];
+            if (j > i) {
+                int a = 2 * (offset + i * stride);
+                int b = 2 * (offset + j * stride);
+                double re = data[a];
+                double im = data[a + 1];
+                data[a] = data[b];
+                data[a + 1] = data[b + 1];
+                data[b] = re;
+                data[b + 1] = im;
+            }
+        }
+        double sign = inverse ? -1 : 1;
+        for (int length = 2; length <= n; length <<= 1) {
+            int half = length >> 1;
+            int step = n / length;
+            for (int start = 0; start < n; start += length) {
+                for (int k = 0; k < half; k++) {
+                    double wRe = cos[k * step];
+                    double wIm = sign * sin[k * step];
+                    int a = 2 * (offset + (start + k) * stride);
+                    int b = 2 * (offset + (start + k + half) * stride);
+                    double re = data[b] * wRe - data[b + 1] * wIm;
+                    double im = data[b] * wIm + data[b + 1] * wRe;
+                    data[b] = data[a] - re;
+                    data[b + 1] = data[a + 1] - im;
+                    data[a] += re;
+                    data[a + 1] += im;
+                }
+            }
+        }
+    }
+}
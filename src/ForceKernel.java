@@ -0,0 +1,45 @@
+import java.util.List;
+
+/**
+ * Interface for the pairwise force kernels summing the force of every particle of a list of stores on a particle.
+ * The force between two particles is 3 * m1 * m2 * d / (|d|^2 + softening^2)^(3/2), where d is the vector between
+ * them. The softening keeps the force finite at short distances, and makes the force of a particle on itself zero,
+ * so the particle does not need to be skipped when it is one of the sources.
+ * The vector kernel is used when the jdk.incubator.vector module is available at startup, which takes
+ * --add-modules jdk.incubator.vector on the java command line, and the scalar kernel otherwise.
+ */
+public interface ForceKernel {
+    double MIN_SOFTENING = 1e-9; // smallest softening length used, so that the force of a particle on itself is 0
+
+    /**
+     * Updates forceX and forceY of a particle from every particle of the sources. A massless tracer gets its
+     * acceleration instead, which is what Particle.kick expects of it.
+     * @param particles store holding the particle
+     * @param index index of the particle in its store
+     * @param sources stores of particles acting on the particle, which may include the particle itself
+     */
+    void computeForce(ParticleStore particles, int index, List<ParticleStore> sources);
+
+    /**
+     * @return name of the kernel, scalar or vector followed by the number of lanes
+     */
+    String getName();
+
+    /**
+     * Creates the kernel to use
+     * @param name auto for the vector kernel if it is available, vector or scalar
+     * @param softening softening length of the force
+     * @return the vector kernel if it was asked for or auto and it is available with more than one lane, otherwise
+     * the scalar kernel
+     */
+    static ForceKernel create(String name, double softening) {
+        double softeningSquared = Math.max(softening, MIN_SOFTENING) * Math.max(softening, MIN_SOFTENING);
+        if (!name.equals("scalar") && ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+            // VectorForceKernel is only loaded here, so without the module it is never linked
+            if (name.equals("vector") || VectorForceKernel.lanes() > 1) {
+                return new VectorForceKernel(softeningSquared);
+            }
+        }
+        return new ScalarForceKernel(softeningSquared);
+    }
+}
@@ -0,0 +1,36 @@
+import mpi.MPIException;
+
+import java.util.List;
+
+/**
+ * Interface for the methods of calculating the forces acting on the particles of a universe.
+ * At every iteration the solver is first prepared with the current particles of the universe and the particles
+ * received from the other universes in the horizon, after which the force on each particle of the universe
+ * can be calculated independently.
+ */
+public interface ForceSolver {
+
+    /**
+     * Prepares the solver for the current iteration.
+     * @param particles particles of the current universe, the particles forces will be calculated for
+     * @param halo particles received from other universes acting on the particles of the current universe
+     * @throws MPIException if the solver communicates with other processes and the communication fails
+     */
+    void prepare(ParticleStore particles, List<ParticleStore> halo) throws MPIException;
+
+    /**
+     * Updates forceX and forceY of a particle of the current universe.
+     * @param particles particles of the current universe, as given to prepare
+     * @param index index of the particle to calculate the force on
+     */
+    void computeForce(ParticleStore particles, int index);
+
+    /**
+     * A particle further than the interaction range from every edge of the current universe does not feel any of
+     * the ghosts received from other universes, so its force can be calculated before they arrive. Only particles
+     * within the interaction range of the universe of another process are sent to it as ghosts.
+     * @return the interaction range, Double.POSITIVE_INFINITY if every particle depends on every ghost, 0 if the
+     * solver does not use ghosts at all
+     */
+    double getInteractionRange();
+}
@@ -1,3 +1,5 @@
+import mpi.MPIException;
+
 import java.util.ArrayList;
 
 /**
@@ -6,38 +8,48 @@ import java.util.ArrayList;
 public class GridUtil {
 
     /**
-     * Given a process's rank, the simulation horizon value, and the size of amount of processes made,
-     * the function should return the rank values of the processes that the process with the given rank should communicate with.
-     * @param rank Number of current process
+     * Given the communicator of the grid of processes, the simulation horizon value, and the layout of the grid,
+     * the function should return the rank values of the processes that the current process should communicate with.
+     * The ranks are looked up in the grid communicator, which may have placed neighbouring processes on the same node.
+     * The grid wraps around at its edges, so a process on one edge communicates with the processes on the opposite
+     * edge.
+     * Every rank is listed once even if the horizon wraps around the grid, and the process itself is never listed.
+     * @param grid Communicator created by createGrid, whose rank is the current process
      * @param horizon Horizon of communication between processes
-     * @param size Number of processes
-     * @return List of ranks that the process with the given rank should communicate with
+     * @param columns Number of processes along the width of the grid
+     * @param rows Number of processes along the height of the grid
+     * @return List of ranks that the current process should communicate with
+     * @throws MPIException
      */
-    public static ArrayList<Integer> shouldSend(int rank, int horizon, int size) {
+    public static ArrayList<Integer> shouldSend(Communicator grid, int horizon, int columns, int rows)
+            throws MPIException {
         ArrayList<Integer> retList = new ArrayList<>();
         if (horizon < 1) return retList;
-        int gridWidth = (int)Math.sqrt(size);
-        for (int i = (rank + (-horizon * gridWidth)); i <= (rank + (horizon * gridWidth)); i += gridWidth) {
-            int pivot = i;
-            if (pivot < 0) {
-                pivot = pivot % size;
-                pivot += size;
-            } else if (pivot >= size) {
-                pivot = pivot % size;
-            }
-            int row = pivot / gridWidth;
-            for (int j = (pivot - horizon); j <= (pivot + horizon); j++) {
-                int rankToAdd = j;
-                int currRow = (int)Math.floor((double)rankToAdd / (double)gridWidth);
-                rankToAdd += ((row - currRow)*gridWidth);
-                if (!retList.contains(new Integer(rankToAdd))) {
+        int rank = grid.getRank();
+        int row = rank / columns;
+        int column = rank % columns;
+        boolean[] listed = new boolean[columns * rows];
+        listed[rank] = true;
+        for (int i = -horizon; i <= horizon; i++) {
+            for (int j = -horizon; j <= horizon; j++) {
+                int rankToAdd = grid.rankAt(column + j, row + i);
+                if (!listed[rankToAdd]) {
+                    listed[rankToAdd] = true;
                     retList.add(rankToAdd);
                 }
             }
         }
-        if (retList.contains(rank)) {
-            retList.remove(new Integer(rank));
-        }
         return retList;
     }
+
+    /**
+     * Given a force cutoff radius, the function should return the horizon needed for every particle within the
+     * cutoff of a process's universe to be sent to that process.
+     * @param cutoff Cutoff radius of the force
+     * @param domainSize Width or height of a process's universe, whichever is smaller
+     * @return Horizon of communication between processes
+     */
+    public static int horizonForCutoff(double cutoff, double domainSize) {
+        return (int)Math.ceil(cutoff / domainSize);
+    }
 }
@@ -0,0 +1,169 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Binary wire format of the particles sent between processes.
+ * A message is a fixed header followed by the particle columns one after the other:
+ *   int magic, int version, int rank of the sender, int number of particles,
+ *   long id[count], double radius[count], double mass[count], double locX[count], double locY[count],
+ *   double velocityX[count], double velocityY[count], byte large[count], byte level[count]
+ * Forces are not sent because every process recalculates them before they are used.
+ * All values are little endian. Buffers are direct so they can be handed to MPI without copying, and are reused
+ * between messages as long as they are large enough.
+ */
+public class HaloCodec {
+    static final int MAGIC = 0x554E4956; // "UNIV"
+    static final int VERSION = 3;
+    static final int HEADER_BYTES = 16;
+    static final int BYTES_PER_PARTICLE = 7 * 8 + 2;
+
+    private HaloCodec() {
+    }
+
+    /**
+     * @param count number of particles
+     * @return number of bytes of a message holding the given number of particles
+     */
+    public static int encodedSize(int count) {
+        return HEADER_BYTES + count * BYTES_PER_PARTICLE;
+    }
+
+    /**
+     * Returns a direct buffer of at least the given capacity, reusing the given buffer if it is large enough.
+     * New buffers are given some headroom so that a slowly growing message does not allocate at every iteration.
+     * @param buffer buffer to reuse, may be null
+     * @param capacity number of bytes needed
+     * @return a cleared buffer with at least the given capacity
+     */
+    public static ByteBuffer ensureCapacity(ByteBuffer buffer, int capacity) {
+        if (buffer == null || buffer.capacity() < capacity) {
+            int newCapacity = Math.max(capacity + capacity / 4, 1024);
+            buffer = ByteBuffer.allocateDirect(newCapacity).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Encodes the particles of a store into a buffer
+     * @param particles particles to encode
+     * @param rank rank of the sending process
+     * @param buffer buffer to reuse, may be null
+     * @return the buffer holding the message, from position 0 to its limit
+     */
+    public static ByteBuffer encode(ParticleStore particles, int rank, ByteBuffer buffer) {
+        return encode(particles, null, particles.count, rank, buffer);
+    }
+
+    /**
+     * Encodes some of the particles of a store into a buffer
+     * @param particles store holding the particles to encode
+     * @param indices indices of the particles to encode, null to encode the first count particles
+     * @param count number of particles to encode
+     * @param rank rank of the sending process
+     * @param buffer buffer to reuse, may be null
+     * @return the buffer holding the message, from position 0 to its limit
+     */
+    public static ByteBuffer encode(ParticleStore particles, int[] indices, int count, int rank, ByteBuffer buffer) {
+        buffer = ensureCapacity(buffer, encodedSize(count));
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, VERSION);
+        buffer.putInt(8, rank);
+        buffer.putInt(12, count);
+        int offset = HEADER_BYTES;
+        offset = putIds(buffer, offset, particles.id, indices, count);
+        offset = putColumn(buffer, offset, particles.radius, indices, count);
+        offset = putColumn(buffer, offset, particles.mass, indices, count);
+        offset = putColumn(buffer, offset, particles.locX, indices, count);
+        offset = putColumn(buffer, offset, particles.locY, indices, count);
+        offset = putColumn(buffer, offset, particles.velocityX, indices, count);
+        offset = putColumn(buffer, offset, particles.velocityY, indices, count);
+        for (int i = 0; i < count; i++) {
+            int p = indices == null ? i : indices[i];
+            buffer.put(offset + i, (byte)(particles.large[p] ? 1 : 0));
+            buffer.put(offset + count + i, particles.level[p]);
+        }
+        buffer.limit(offset + 2 * count);
+        return buffer;
+    }
+
+    /**
+     * Decodes a message into a store, replacing the particles it holds
+     * @param buffer buffer holding the message from position 0
+     * @param particles store to decode into, its columns are reused
+     * @return rank of the process that sent the message
+     * @throws IOException if the buffer does not hold a message of this version of the format
+     */
+    public static int decode(ByteBuffer buffer, ParticleStore particles) throws IOException {
+        if (buffer.getInt(0) != MAGIC) {
+            throw new IOException("Received data is not a particle message");
+        }
+        int version = buffer.getInt(4);
+        if (version != VERSION) {
+            throw new IOException("Unsupported particle message version " + version);
+        }
+        int rank = buffer.getInt(8);
+        int count = buffer.getInt(12);
+        particles.clear();
+        particles.ensureCapacity(count);
+        int offset = HEADER_BYTES;
+        for (int i = 0; i < count; i++) {
+            particles.id[i] = buffer.getLong(offset + 8 * i);
+        }
+        offset += 8 * count;
+        offset = getColumn(buffer, offset, particles.radius, count);
+        offset = getColumn(buffer, offset, particles.mass, count);
+        offset = getColumn(buffer, offset, particles.locX, count);
+        offset = getColumn(buffer, offset, particles.locY, count);
+        offset = getColumn(buffer, offset, particles.velocityX, count);
+        offset = getColumn(buffer, offset, particles.velocityY, count);
+        for (int i = 0; i < count; i++) {
+            particles.large[i] = buffer.get(offset + i) != 0;
+            particles.level[i] = buffer.get(offset + count + i);
+            particles.forceX[i] = 0;
+            particles.forceY[i] = 0;
+        }
+        particles.count = count;
+        return rank;
+    }
+
+    /**
+     * Writes the ids of the particles at the given byte offset
+     * @return byte offset after the ids
+     */
+    private static int putIds(ByteBuffer buffer, int offset, long[] id, int[] indices, int count) {
+        for (int i = 0; i < count; i++) {
+            buffer.putLong(offset + 8 * i, id[indices == null ? i : indices[i]]);
+        }
+        return offset + 8 * count;
+    }
+
+    /**
+     * Writes a column of doubles at the given byte offset
+     * @return byte offset after the column
+     */
+    private static int putColumn(ByteBuffer buffer, int offset, double[] column, int[] indices, int count) {
+        if (indices == null) {
+            for (int i = 0; i < count; i++) {
+                buffer.putDouble(offset + 8 * i, column[i]);
+            }
+        } else {
+            for (int i = 0; i < count; i++) {
+                buffer.putDouble(offset + 8 * i, column[indices[i]]);
+            }
+        }
+        return offset + 8 * count;
+    }
+
+    /**
+     * Reads a column of doubles from the given byte offset
+     * @return byte offset after the column
+     */
+    private static int getColumn(ByteBuffer buffer, int offset, double[] column, int count) {
+        for (int i = 0; i < count; i++) {
+            column[i] = buffer.getDouble(offset + 8 * i);
+        }
+        return offset + 8 * count;
+    }
+}
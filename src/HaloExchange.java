@@ -0,0 +1,457 @@
+import mpi.MPIException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Class handling the particles a process exchanges with the processes in its horizon at every iteration.
+ * Every process in the horizon is sent two messages:
+ * 1. Migrants: particles that moved into the universe of that process and are handed over to it
+ * 2. Ghosts: particles within the interaction range of the universe of that process, which act on its particles
+ * Particles further than the interaction range from a neighbouring universe are not sent to it at all, so with a
+ * finite interaction range the data sent grows with the perimeter of a universe rather than with its area.
+ * Received messages are kept per process in the horizon and handed out in the order of ranksInHorizon, so that
+ * the forces calculated from them do not depend on the order in which they arrived.
+ * Messages are encoded into two sets of send buffers used in turn, so that a buffer is not overwritten while a
+ * communicator that hands buffers over without copying them may still be reading it.
+ */
+public class HaloExchange {
+    static final int MIGRANT_TAG = 0; // tag of the messages holding migrants
+    static final int GHOST_TAG = 1; // tag of the messages holding ghosts
+    static final int SIZE_TAG = 2; // tag of the messages announcing the sizes of the two above, non-blocking only
+    static final int SCATTER_TAG = 3; // tag of the messages handing generated particles to the processes owning them
+
+    private Communicator communicator; // communication with the other processes
+    private int rank; // rank of process
+    private ArrayList<Integer> ranksInHorizon; // ranks of the processes exchanged with, in a fixed order
+    private int[] neighbourIndex; // index of every rank in ranksInHorizon, -1 for ranks outside the horizon
+    private ParticleStore[] migrantsToSend; // particles that moved into the universe of each process in the horizon
+    private int[][] ghostIndices; // indices of the local particles to send to each process in the horizon as ghosts
+    private int[] ghostCounts; // number of valid entries in each row of ghostIndices
+    private boolean allGhosts; // true if every local particle is a ghost of every process in the horizon
+    private int[] smallIndices = new int[16]; // indices of the small local particles, the ghosts if large ones are not
+    private int smallCount; // number of valid entries in smallIndices
+    private ByteBuffer[][] migrantSendBuffers, ghostSendBuffers; // both sets of encoded messages for each process
+    private ByteBuffer[] sharedGhostBuffers; // both sets of the ghost message sent to every process with allGhosts
+    private int sendSet; // set of send buffers holding the messages of the next exchange
+    private UniverseToSend[] receivedMigrants, receivedGhosts; // decoded messages of each process in the horizon
+    private ArrayList<ParticleStore> migrants, ghosts; // decoded stores in the order of ranksInHorizon
+    private Message receiveMessage; // reused message of the blocking exchange
+    private ByteBuffer[] sizeSendBuffers; // message sizes sent before non-blocking data
+    private Message[] sizeMessages; // non-blocking receives and sends of the message sizes
+    private Message[] migrantMessages, ghostMessages, sendMessages; // outstanding non-blocking receives and sends
+    private long messagesSent, bytesSent, messagesReceived, bytesReceived; // communication totals of the run
+    private long migrantsSent; // number of particles handed over to other processes over the run
+    private long encodeNanos, decodeNanos; // time spent encoding and decoding particles over the run
+    private int encodes; // number of times particles were exported
+
+    /**
+     * Constructor for HaloExchange objects
+     * @param communicator communication with the other processes
+     * @param ranksInHorizon ranks of the processes to exchange particles with at every iteration
+     */
+    public HaloExchange(Communicator communicator, ArrayList<Integer> ranksInHorizon) {
+        this.communicator = communicator;
+        this.rank = communicator.getRank();
+        this.ranksInHorizon = ranksInHorizon;
+        int neighbours = ranksInHorizon.size();
+        this.neighbourIndex = new int[communicator.getSize()];
+        Arrays.fill(neighbourIndex, -1);
+        for (int k = 0; k < neighbours; k++) {
+            neighbourIndex[ranksInHorizon.get(k)] = k;
+        }
+        this.migrantsToSend = new ParticleStore[neighbours];
+        this.ghostIndices = new int[neighbours][16];
+        this.ghostCounts = new int[neighbours];
+        this.migrantSendBuffers = new ByteBuffer[2][neighbours];
+        this.ghostSendBuffers = new ByteBuffer[2][neighbours];
+        this.sharedGhostBuffers = new ByteBuffer[2];
+        this.receivedMigrants = new UniverseToSend[neighbours];
+        this.receivedGhosts = new UniverseToSend[neighbours];
+        this.receiveMessage = new Message(null);
+        this.sizeSendBuffers = new ByteBuffer[neighbours];
+        this.sizeMessages = new Message[2 * neighbours];
+        this.migrantMessages = new Message[neighbours];
+        this.ghostMessages = new Message[neighbours];
+        this.sendMessages = new Message[2 * neighbours];
+        for (int k = 0; k < neighbours; k++) {
+            migrantsToSend[k] = new ParticleStore();
+            receivedMigrants[k] = new UniverseToSend(ranksInHorizon.get(k));
+            receivedGhosts[k] = new UniverseToSend(ranksInHorizon.get(k));
+            sizeSendBuffers[k] = HaloCodec.ensureCapacity(null, 8);
+            migrantMessages[k] = new Message(null);
+            ghostMessages[k] = new Message(null);
+        }
+        for (int m = 0; m < 2 * neighbours; m++) {
+            sizeMessages[m] = new Message(null);
+            sendMessages[m] = new Message(null);
+        }
+        this.migrants = new ArrayList<>();
+        this.ghosts = new ArrayList<>();
+    }
+
+    /**
+     * Prepares the messages for the next exchange from the particles of the current universe.
+     * Particles that left the current universe are removed from the store and become migrants of the process whose
+     * universe they moved into. Particles that moved into a universe beyond the horizon, which happens when load
+     * balancing has made the universes in between narrow, are handed to the process in the horizon nearest to them,
+     * which passes them on at its next export, so no particle is ever lost. Without any process in the horizon,
+     * particles that left are kept.
+     * The remaining particles within the interaction range of a process in the horizon become its ghosts.
+     * @param particles particles of the current universe
+     * @param decomposition decomposition of the whole universe between the processes
+     * @param range interaction range of the force solver, 0 if ghosts are not needed at all
+     * @param largeGhosts false if large particles are never ghosts, because every process has all of them anyway
+     */
+    public void exportParticles(ParticleStore particles, Decomposition decomposition, double range,
+                                boolean largeGhosts) {
+        long start = System.nanoTime();
+        int neighbours = ranksInHorizon.size();
+        sendSet = 1 - sendSet;
+        for (int k = 0; k < neighbours; k++) {
+            migrantsToSend[k].clear();
+            ghostCounts[k] = 0;
+        }
+        // from the end, so that the particle swapped into a removed one's place has already been looked at
+        for (int i = particles.count - 1; i >= 0; i--) {
+            double x = particles.locX[i];
+            double y = particles.locY[i];
+            if (decomposition.contains(rank, x, y)) continue;
+            int k = neighbourIndex[decomposition.rankOf(x, y)];
+            if (k < 0) {
+                k = nearestNeighbour(decomposition, x, y);
+                if (k < 0) continue; // nobody to hand it to, so it stays
+            }
+            migrantsToSend[k].addFrom(particles, i);
+            migrantsSent++;
+            particles.remove(i);
+        }
+
+        this.allGhosts = range == Double.POSITIVE_INFINITY;
+        if (allGhosts && largeGhosts) {
+            sharedGhostBuffers[sendSet] = HaloCodec.encode(particles, rank, sharedGhostBuffers[sendSet]);
+        } else if (allGhosts) {
+            smallCount = 0;
+            for (int i = 0; i < particles.count; i++) {
+                if (particles.large[i]) continue;
+                if (smallCount == smallIndices.length) {
+                    smallIndices = Arrays.copyOf(smallIndices, 2 * smallCount);
+                }
+                smallIndices[smallCount++] = i;
+            }
+            sharedGhostBuffers[sendSet] = HaloCodec.encode(particles, smallIndices, smallCount, rank,
+                    sharedGhostBuffers[sendSet]);
+        } else if (range > 0) {
+            for (int i = 0; i < particles.count; i++) {
+                if (!largeGhosts && particles.large[i]) continue;
+                double x = particles.locX[i];
+                double y = particles.locY[i];
+                if (decomposition.distanceToBoundary(rank, x, y) > range) continue;
+                for (int k = 0; k < neighbours; k++) {
+                    if (decomposition.distanceToDomain(ranksInHorizon.get(k), x, y) <= range) {
+                        addGhost(k, i);
+                    }
+                }
+            }
+        }
+        for (int k = 0; k < neighbours; k++) {
+            ByteBuffer[] migrantBuffers = migrantSendBuffers[sendSet];
+            ByteBuffer[] ghostBuffers = ghostSendBuffers[sendSet];
+            migrantBuffers[k] = HaloCodec.encode(migrantsToSend[k], rank, migrantBuffers[k]);
+            if (!allGhosts) {
+                ghostBuffers[k] = HaloCodec.encode(particles, ghostIndices[k], ghostCounts[k], rank, ghostBuffers[k]);
+            }
+        }
+        encodeNanos += System.nanoTime() - start;
+        encodes++;
+    }
+
+    /**
+     * @param decomposition
+     * @param x
+     * @param y
+     * @return index in ranksInHorizon of the process whose universe is nearest to the point, -1 if there is none
+     */
+    private int nearestNeighbour(Decomposition decomposition, double x, double y) {
+        int nearest = -1;
+        double nearestDistance = Double.MAX_VALUE;
+        for (int k = 0; k < ranksInHorizon.size(); k++) {
+            double distance = decomposition.distanceToDomain(ranksInHorizon.get(k), x, y);
+            if (distance < nearestDistance) {
+                nearest = k;
+                nearestDistance = distance;
+            }
+        }
+        return nearest;
+    }
+
+    /**
+     * Appends a particle to the ghosts of a process in the horizon
+     * @param k index of the process in ranksInHorizon
+     * @param index index of the particle in the current universe
+     */
+    private void addGhost(int k, int index) {
+        if (ghostCounts[k] == ghostIndices[k].length) {
+            ghostIndices[k] = Arrays.copyOf(ghostIndices[k], 2 * ghostCounts[k]);
+        }
+        ghostIndices[k][ghostCounts[k]++] = index;
+    }
+
+    /**
+     * @param k index of the process in ranksInHorizon
+     * @return the encoded migrants to send to the process
+     */
+    private ByteBuffer migrantBuffer(int k) {
+        return migrantSendBuffers[sendSet][k];
+    }
+
+    /**
+     * @param k index of the process in ranksInHorizon
+     * @return the encoded ghosts to send to the process
+     */
+    private ByteBuffer ghostBuffer(int k) {
+        return allGhosts ? sharedGhostBuffers[sendSet] : ghostSendBuffers[sendSet][k];
+    }
+
+    /**
+     * Sends the migrants and then the ghosts of the process with the given rank to it
+     * @param receivingRank
+     * @throws MPIException
+     */
+    public void send(int receivingRank) throws MPIException {
+        int k = neighbourIndex[receivingRank];
+        ByteBuffer migrantBuffer = migrantBuffer(k);
+        ByteBuffer ghostBuffer = ghostBuffer(k);
+        communicator.send(migrantBuffer, receivingRank, MIGRANT_TAG);
+        communicator.send(ghostBuffer, receivingRank, GHOST_TAG);
+        messagesSent += 2;
+        bytesSent += migrantBuffer.limit() + ghostBuffer.limit();
+    }
+
+    /**
+     * Receives the migrants and the ghosts of every process in the horizon. The function waits for messages without
+     * specifying where they need to come from, and decodes each of them as soon as it arrives. The migrants are
+     * sent first, and the tags are given so that messages a force solver sends once a process is done here are
+     * left for the solver.
+     * @throws MPIException
+     * @throws IOException
+     */
+    public void receiveAll() throws MPIException, IOException {
+        int neighbours = ranksInHorizon.size();
+        for (int n = 0; n < 2 * neighbours; n++) {
+            communicator.receive(receiveMessage, Communicator.ANY_SOURCE, n < neighbours ? MIGRANT_TAG : GHOST_TAG);
+            int k = neighbourIndex[receiveMessage.source];
+            decode(receiveMessage.buffer, receiveMessage.tag == MIGRANT_TAG ? receivedMigrants[k] : receivedGhosts[k]);
+        }
+    }
+
+    /**
+     * Posts the non-blocking receives and sends of the messages exchanged with every process in the horizon at once.
+     * The sizes of both messages are exchanged first so that every receive buffer can be sized before the data
+     * itself is posted.
+     * @throws MPIException
+     */
+    public void start() throws MPIException {
+        int neighbours = ranksInHorizon.size();
+        for (int k = 0; k < neighbours; k++) {
+            int other = ranksInHorizon.get(k);
+            communicator.iRecv(sizeMessages[k], 8, other, SIZE_TAG);
+            sizeSendBuffers[k].putInt(0, migrantBuffer(k).limit());
+            sizeSendBuffers[k].putInt(4, ghostBuffer(k).limit());
+            sizeSendBuffers[k].limit(8);
+            communicator.iSend(sizeMessages[neighbours + k], sizeSendBuffers[k], other, SIZE_TAG);
+        }
+        communicator.waitAll(sizeMessages);
+
+        for (int k = 0; k < neighbours; k++) {
+            int other = ranksInHorizon.get(k);
+            ByteBuffer sizes = sizeMessages[k].buffer;
+            communicator.iRecv(migrantMessages[k], sizes.getInt(0), other, MIGRANT_TAG);
+            communicator.iRecv(ghostMessages[k], sizes.getInt(4), other, GHOST_TAG);
+        }
+        for (int k = 0; k < neighbours; k++) {
+            int other = ranksInHorizon.get(k);
+            ByteBuffer migrantBuffer = migrantBuffer(k);
+            ByteBuffer ghostBuffer = ghostBuffer(k);
+            communicator.iSend(sendMessages[2 * k], migrantBuffer, other, MIGRANT_TAG);
+            communicator.iSend(sendMessages[2 * k + 1], ghostBuffer, other, GHOST_TAG);
+            messagesSent += 2;
+            bytesSent += migrantBuffer.limit() + ghostBuffer.limit();
+        }
+    }
+
+    /**
+     * Hands every particle from the given index on that lies in the universe of another process straight to that
+     * process, wherever it is in the grid, and appends the particles handed to the current process. Unlike migrants,
+     * which only reach the processes in the horizon, this reaches every process, so it places particles drawn over
+     * the whole universe in one step. Every process must call it, once, before the first export.
+     * @param particles particles of the current universe
+     * @param from index of the first particle that may lie in another universe
+     * @param decomposition division of the whole universe between the processes
+     * @throws MPIException
+     * @throws IOException
+     */
+    public void scatter(ParticleStore particles, int from, Decomposition decomposition)
+            throws MPIException, IOException {
+        int size = communicator.getSize();
+        ParticleStore[] outgoing = new ParticleStore[size]; // particles to hand to each process, null if none
+        double[] sending = new double[size]; // 1 for every process the current one hands particles to
+        // from the end, so that the particle moved into a removed slot has already been looked at
+        for (int i = particles.count - 1; i >= from; i--) {
+            int owner = decomposition.rankOf(particles.locX[i], particles.locY[i]);
+            if (owner == rank) {
+                continue;
+            }
+            if (outgoing[owner] == null) {
+                outgoing[owner] = new ParticleStore();
+                sending[owner] = 1;
+            }
+            outgoing[owner].addFrom(particles, i);
+            particles.remove(i);
+        }
+        double[] senders = new double[size]; // number of processes handing particles to each process
+        communicator.allReduceSum(sending, senders, size);
+
+        ArrayList<Message> sends = new ArrayList<>();
+        for (int other = 0; other < size; other++) {
+            if (outgoing[other] != null) {
+                ByteBuffer buffer = HaloCodec.encode(outgoing[other], rank, null);
+                Message message = new Message(null);
+                communicator.iSend(message, buffer, other, SCATTER_TAG);
+                sends.add(message);
+                migrantsSent += outgoing[other].count;
+                messagesSent++;
+                bytesSent += buffer.limit();
+            }
+        }
+        ParticleStore received = new ParticleStore();
+        for (int n = 0; n < (int)senders[rank]; n++) {
+            communicator.receive(receiveMessage, Communicator.ANY_SOURCE, SCATTER_TAG);
+            messagesReceived++;
+            bytesReceived += receiveMessage.buffer.limit();
+            HaloCodec.decode(receiveMessage.buffer, received);
+            for (int i = 0; i < received.count; i++) {
+                particles.addFrom(received, i);
+            }
+        }
+        communicator.waitAll(sends.toArray(new Message[0]));
+    }
+
+    /**
+     * Waits for the migrants of every process in the horizon, decoding each message as soon as it arrives.
+     * Migrant messages only hold the particles that crossed a boundary, so they arrive well before the ghosts.
+     * @throws MPIException
+     * @throws IOException
+     */
+    public void finishMigrants() throws MPIException, IOException {
+        int k;
+        while ((k = communicator.waitAny(migrantMessages)) >= 0) {
+            decode(migrantMessages[k].buffer, receivedMigrants[k]);
+        }
+    }
+
+    /**
+     * Waits for the ghosts of every process in the horizon, decoding each message as soon as it arrives,
+     * and then for the sends of the current process to complete
+     * @throws MPIException
+     * @throws IOException
+     */
+    public void finishGhosts() throws MPIException, IOException {
+        int k;
+        while ((k = communicator.waitAny(ghostMessages)) >= 0) {
+            decode(ghostMessages[k].buffer, receivedGhosts[k]);
+        }
+        communicator.waitAll(sendMessages);
+    }
+
+    /**
+     * Decodes a received message into a reused UniverseToSend object
+     * @param buffer buffer holding the message
+     * @param receivedUniverse object to decode into
+     * @throws IOException
+     */
+    private void decode(ByteBuffer buffer, UniverseToSend receivedUniverse) throws IOException {
+        messagesReceived++;
+        bytesReceived += buffer.limit();
+        long start = System.nanoTime();
+        receivedUniverse.rank = HaloCodec.decode(buffer, receivedUniverse.particles);
+        decodeNanos += System.nanoTime() - start;
+    }
+
+    /**
+     * @param otherRank
+     * @return true if particles are exchanged with the process with the given rank at every iteration
+     */
+    public boolean isNeighbour(int otherRank) {
+        return neighbourIndex[otherRank] >= 0;
+    }
+
+    /**
+     * @return the received migrants of every process in the horizon, in the order of ranksInHorizon
+     */
+    public List<ParticleStore> getMigrants() {
+        migrants.clear();
+        for (UniverseToSend receivedUniverse : receivedMigrants) {
+            migrants.add(receivedUniverse.particles);
+        }
+        return migrants;
+    }
+
+    /**
+     * @return the received ghosts of every process in the horizon, in the order of ranksInHorizon
+     */
+    public List<ParticleStore> getGhosts() {
+        ghosts.clear();
+        for (UniverseToSend receivedUniverse : receivedGhosts) {
+            ghosts.add(receivedUniverse.particles);
+        }
+        return ghosts;
+    }
+
+    /**
+     * Empties the received messages once the iteration is done with them
+     */
+    public void clear() {
+        for (int k = 0; k < receivedMigrants.length; k++) {
+            receivedMigrants[k].particles.clear();
+            receivedGhosts[k].particles.clear();
+        }
+    }
+
+    /**
+     * @return number of bytes sent to other processes over the run
+     */
+    public long getBytesSent() {
+        return bytesSent;
+    }
+
+    /**
+     * @return number of bytes received from other processes over the run
+     */
+    public long getBytesReceived() {
+        return bytesReceived;
+    }
+
+    /**
+     * @return number of particles handed over to other processes over the run
+     */
+    public long getMigrantsSent() {
+        return migrantsSent;
+    }
+
+    /**
+     * Prints the number of messages and bytes the process sent and received over the run,
+     * together with the average time spent encoding particles per iteration and decoding them per message
+     */
+    public void reportCommunication() {
+        System.out.println("Process " + rank + " sent " + messagesSent + " messages (" + bytesSent + " bytes, "
+                + (messagesSent > 0 ? bytesSent / messagesSent : 0) + " bytes/message, "
+                + (encodes > 0 ? encodeNanos / encodes / 1000 : 0) + " us/export), received " + messagesReceived
+                + " messages (" + bytesReceived + " bytes, "
+                + (messagesReceived > 0 ? bytesReceived / messagesReceived : 0) + " bytes/message, "
+                + (messagesReceived > 0 ? decodeNanos / messagesReceived / 1000 : 0) + " us/decode)");
+    }
+}
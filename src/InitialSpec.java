@@ -1,5 +1,6 @@
 import java.io.BufferedReader;
 import java.io.FileReader;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -8,53 +9,218 @@ import java.util.List;
  */
 public class InitialSpec {
     int timeSlots, horizon, gridSize, numberOfSmallParticles, numberOfLargeParticles;
-    double timeStep, smallParticleMass, smallParticleRadius;
+    double timeStep, smallParticleMass, smallParticleRadius; // small particles may be massless with tracers only
+    long seed = 1; // seed of the random locations of the small particles, the same seed gives the same particles
+    String distribution = "uniform"; // distribution of the small particles, uniform, plummer or clustered
+    double distributionScale; // plummer scale radius or cluster standard deviation, 0 for a tenth of the whole universe
+    int clusters = 4; // clusters per process of the clustered distribution
+    boolean replicateLarge; // true to keep every large particle on every process as an exact source of force
+    boolean tracers; // true for small particles feeling the large particles only, which replicates the large ones
+    boolean collisions; // true to merge particles closer than the sum of their radii
+    String particleFile = ""; // binary file of pre-generated particles used instead of the small particles, if any
+    double boxWidth, boxHeight; // size of the whole universe, 0 for gridSize per process along each side
+    String forceSolver = "direct"; // method used to calculate forces, direct, barneshut, pm or celllist
+    double openingAngle = 0.5; // opening angle of the barneshut force solver
+    String forceKernel = "auto"; // pairwise kernel of the direct force solver, auto, vector or scalar
+    double softening = 0.01; // softening length of the pairwise force of the direct, barneshut and celllist solvers
+    int meshSize; // mesh cells along each side of the universe for the pm force solver, 0 for the default
+    double cutoffRadius; // cutoff of the celllist force solver, 0 for horizon * gridSize, halved when load balancing
+    int threads = 1; // threads per process for the force and integration loops
+    String exchange = "blocking"; // exchange of data between processes, blocking or nonblocking
+    String transport = "mpi"; // how processes communicate, mpi or threads of a single JVM
+    int ranks = 1; // number of processes to run as threads with the threads transport
+    int loadBalanceInterval; // iterations between repartitions of the universe, 0 to keep it fixed
+    double minDomainWidth; // smallest width of a universe when load balancing, 0 for gridSize / 4
+    int snapshotInterval; // iterations between snapshots of the particles, 0 for no snapshots
+    String snapshotFile = "trajectory.bin"; // trajectory file the snapshots are written to, preceded by the rank
+    int frameInterval; // iterations between PPM frames of the whole universe, 0 for no frames
+    String framePrefix = "frame"; // file name of the frames, followed by the iteration and .ppm
+    int checkpointInterval; // iterations between checkpoints of the simulation, 0 for no checkpoints
+    String checkpointPrefix = "checkpoint"; // directory name of the checkpoints, followed by the iteration
+    boolean restart; // true to continue from the latest complete checkpoint if there is one
+    int metricsInterval; // iterations between reports of the metrics of every process, 0 for no reports
+    String metricsFile = "metrics.csv"; // CSV file the metrics are written to
+    int blockLevels; // finest block time-step level, a particle steps timeStep / 2^level at a time, 0 for one step
+    double timeStepAccuracy = 0.05; // largest distance the acceleration of a particle may move it within its step
     List<LargeParticleSpec> largeParticleSpecs = new ArrayList<LargeParticleSpec>();
 
     /**
      * The constructor takes in the filename (i.e. initialspec.txt) and parses the file for information about how
      * to run the simulation.
+     * Lines of the form "Key: value" set the field belonging to the key, any other line describes a large particle.
+     * Everything after a # is a comment, and a key without a value is set to the empty string.
      * @param fileName
+     * @throws IOException if the file cannot be read, or naming the line that cannot be parsed
      */
-    public InitialSpec(String fileName) {
-        try {
-            FileReader fr = new FileReader(fileName);
-            BufferedReader br = new BufferedReader(fr);
+    public InitialSpec(String fileName) throws IOException {
+        try (BufferedReader br = new BufferedReader(new FileReader(fileName))) {
             String line;
-            int i = 0;
+            int lineNumber = 0;
             while ((line = br.readLine()) != null) {
-                String[] splitLine = line.split(" ");
-                if (i < 8) {
-                    String value = splitLine[1];
-                    if (i == 0) {
-                        this.timeSlots = Integer.parseInt(value);
-                    } else if (i == 1) {
-                        this.timeStep = Double.parseDouble(value);
-                    } else if (i == 2) {
-                        this.horizon = Integer.parseInt(value);
-                    } else if (i == 3) {
-                        this.gridSize = Integer.parseInt(value);
-                    } else if (i == 4) {
-                        this.numberOfSmallParticles = Integer.parseInt(value);
-                    } else if (i == 5) {
-                        this.smallParticleMass = Double.parseDouble(value);
-                    } else if (i == 6) {
-                        this.smallParticleRadius = Double.parseDouble(value);
-                    } else if (i == 7) {
-                        this.numberOfLargeParticles = Integer.parseInt(value);
+                lineNumber++;
+                int comment = line.indexOf('#');
+                line = (comment >= 0 ? line.substring(0, comment) : line).trim();
+                if (line.isEmpty()) continue;
+                String[] splitLine = line.split("\\s+");
+                try {
+                    if (splitLine[0].endsWith(":")) {
+                        String key = splitLine[0].substring(0, splitLine[0].length() - 1);
+                        setValue(key, splitLine.length > 1 ? splitLine[1] : "");
+                    } else {
+                        double radius = Double.parseDouble(splitLine[0]);
+                        double mass = Double.parseDouble(splitLine[1]);
+                        double locX = Double.parseDouble(splitLine[2]);
+                        double locY = Double.parseDouble(splitLine[3]);
+                        LargeParticleSpec spec = new LargeParticleSpec(radius, mass, locX, locY);
+                        largeParticleSpecs.add(spec);
                     }
-                } else {
-                    double radius = Double.parseDouble(splitLine[0]);
-                    double mass = Double.parseDouble(splitLine[1]);
-                    double locX = Double.parseDouble(splitLine[2]);
-                    double locY = Double.parseDouble(splitLine[3]);
-                    LargeParticleSpec spec = new LargeParticleSpec(radius, mass, locX, locY);
-                    largeParticleSpecs.add(spec);
+                } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+                    throw new IOException(fileName + ":" + lineNumber + ": cannot parse \"" + line + "\": " + e);
                 }
-                i++;
             }
-        } catch (Exception e) {
-            System.out.println(e);
+        }
+        if (numberOfSmallParticles > 0 && particleFile.isEmpty()
+                && (smallParticleMass < 0 || (smallParticleMass == 0 && !tracers))) {
+            throw new IOException(fileName + ": SmallParticleMass must be positive, or 0 with Tracers");
+        }
+        if (largeParticleSpecs.size() < numberOfLargeParticles) {
+            throw new IOException(fileName + ": " + numberOfLargeParticles + " large particles but only "
+                    + largeParticleSpecs.size() + " described");
+        }
+    }
+
+    /**
+     * Sets the field belonging to a key of the initialspec.txt file
+     * @param key
+     * @param value
+     */
+    private void setValue(String key, String value) {
+        switch (key) {
+            case "TimeSlots":
+                this.timeSlots = Integer.parseInt(value);
+                break;
+            case "TimeStep":
+                this.timeStep = Double.parseDouble(value);
+                break;
+            case "Horizon":
+                this.horizon = Integer.parseInt(value);
+                break;
+            case "GridSize":
+                this.gridSize = Integer.parseInt(value);
+                break;
+            case "NumberOfSmallParticles":
+                this.numberOfSmallParticles = Integer.parseInt(value);
+                break;
+            case "SmallParticleMass":
+                this.smallParticleMass = Double.parseDouble(value);
+                break;
+            case "SmallParticleRadius":
+                this.smallParticleRadius = Double.parseDouble(value);
+                break;
+            case "Seed":
+                this.seed = Long.parseLong(value);
+                break;
+            case "Distribution":
+                this.distribution = value.toLowerCase();
+                break;
+            case "DistributionScale":
+                this.distributionScale = Double.parseDouble(value);
+                break;
+            case "Clusters":
+                this.clusters = Integer.parseInt(value);
+                break;
+            case "ReplicateLarge":
+                this.replicateLarge = Boolean.parseBoolean(value);
+                break;
+            case "Tracers":
+                this.tracers = Boolean.parseBoolean(value);
+                break;
+            case "Collisions":
+                this.collisions = Boolean.parseBoolean(value);
+                break;
+            case "ParticleFile":
+                this.particleFile = value;
+                break;
+            case "NumberOfLargeParticles":
+                this.numberOfLargeParticles = Integer.parseInt(value);
+                break;
+            case "ForceSolver":
+                this.forceSolver = value.toLowerCase();
+                break;
+            case "OpeningAngle":
+                this.openingAngle = Double.parseDouble(value);
+                break;
+            case "ForceKernel":
+                this.forceKernel = value.toLowerCase();
+                break;
+            case "Softening":
+                this.softening = Double.parseDouble(value);
+                break;
+            case "MeshSize":
+                this.meshSize = Integer.parseInt(value);
+                break;
+            case "CutoffRadius":
+                this.cutoffRadius = Double.parseDouble(value);
+                break;
+            case "Threads":
+                this.threads = Integer.parseInt(value);
+                break;
+            case "Exchange":
+                this.exchange = value.toLowerCase();
+                break;
+            case "Transport":
+                this.transport = value.toLowerCase();
+                break;
+            case "Ranks":
+                this.ranks = Integer.parseInt(value);
+                break;
+            case "BoxWidth":
+                this.boxWidth = Double.parseDouble(value);
+                break;
+            case "BoxHeight":
+                this.boxHeight = Double.parseDouble(value);
+                break;
+            case "LoadBalanceInterval":
+                this.loadBalanceInterval = Integer.parseInt(value);
+                break;
+            case "MinDomainWidth":
+                this.minDomainWidth = Double.parseDouble(value);
+                break;
+            case "SnapshotInterval":
+                this.snapshotInterval = Integer.parseInt(value);
+                break;
+            case "SnapshotFile":
+                this.snapshotFile = value;
+                break;
+            case "FrameInterval":
+                this.frameInterval = Integer.parseInt(value);
+                break;
+            case "FramePrefix":
+                this.framePrefix = value;
+                break;
+            case "CheckpointInterval":
+                this.checkpointInterval = Integer.parseInt(value);
+                break;
+            case "CheckpointPrefix":
+                this.checkpointPrefix = value;
+                break;
+            case "Restart":
+                this.restart = Boolean.parseBoolean(value);
+                break;
+            case "MetricsInterval":
+                this.metricsInterval = Integer.parseInt(value);
+                break;
+            case "MetricsFile":
+                this.metricsFile = value;
+                break;
+            case "BlockLevels":
+                this.blockLevels = Integer.parseInt(value);
+                break;
+            case "TimeStepAccuracy":
+                this.timeStepAccuracy = Double.parseDouble(value);
+                break;
+            default:
+                throw new IllegalArgumentException("unknown key " + key);
         }
     }
 
@@ -68,7 +234,40 @@ public class InitialSpec {
         formatted += "Number of Small Particles: " + this.numberOfSmallParticles + "\n";
         formatted += "Small Particle Mass: " + this.smallParticleMass + "\n";
         formatted += "Small Particle Radius: " + this.smallParticleRadius + "\n";
+        formatted += "Seed: " + this.seed + "\n";
+        formatted += "Distribution: " + this.distribution + "\n";
+        formatted += "Distribution Scale: " + this.distributionScale + "\n";
+        formatted += "Clusters: " + this.clusters + "\n";
+        formatted += "Replicate Large: " + this.replicateLarge + "\n";
+        formatted += "Tracers: " + this.tracers + "\n";
+        formatted += "Collisions: " + this.collisions + "\n";
+        formatted += "Particle File: " + this.particleFile + "\n";
         formatted += "Number of Large Particles: " + this.numberOfLargeParticles + "\n";
+        formatted += "Force Solver: " + this.forceSolver + "\n";
+        formatted += "Opening Angle: " + this.openingAngle + "\n";
+        formatted += "Force Kernel: " + this.forceKernel + "\n";
+        formatted += "Softening: " + this.softening + "\n";
+        formatted += "Mesh Size: " + this.meshSize + "\n";
+        formatted += "Cutoff Radius: " + this.cutoffRadius + "\n";
+        formatted += "Threads: " + this.threads + "\n";
+        formatted += "Exchange: " + this.exchange + "\n";
+        formatted += "Transport: " + this.transport + "\n";
+        formatted += "Ranks: " + this.ranks + "\n";
+        formatted += "Box Width: " + this.boxWidth + "\n";
+        formatted += "Box Height: " + this.boxHeight + "\n";
+        formatted += "Load Balance Interval: " + this.loadBalanceInterval + "\n";
+        formatted += "Min Domain Width: " + this.minDomainWidth + "\n";
+        formatted += "Snapshot Interval: " + this.snapshotInterval + "\n";
+        formatted += "Snapshot File: " + this.snapshotFile + "\n";
+        formatted += "Frame Interval: " + this.frameInterval + "\n";
+        formatted += "Frame Prefix: " + this.framePrefix + "\n";
+        formatted += "Checkpoint Interval: " + this.checkpointInterval + "\n";
+        formatted += "Checkpoint Prefix: " + this.checkpointPrefix + "\n";
+        formatted += "Restart: " + this.restart + "\n";
+        formatted += "Metrics Interval: " + this.metricsInterval + "\n";
+        formatted += "Metrics File: " + this.metricsFile + "\n";
+        formatted += "Block Levels: " + this.blockLevels + "\n";
+        formatted += "Time Step Accuracy: " + this.timeStepAccuracy + "\n";
         return formatted;
     }
 }
@@ -0,0 +1,257 @@
+import mpi.MPIException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * ForceSolver keeping the large particles of every process on every process, wrapped around the force solver of the
+ * small particles.
+ * Large particles are few and massive, so at every export the processes gather all of them with an allgather of
+ * DOUBLES_PER_PARTICLE doubles per large particle, and their forces on every particle are summed exactly with a
+ * ForceKernel, wherever the particle is. The wrapped solver only ever sees the small particles: it is prepared with a
+ * copy of the small particles of the current universe, and the ghosts of other processes, which then hold small
+ * particles only. A large particle feels every large particle, summed exactly, and the small particles of every
+ * process: at every prepare each process sums the force of its own small particles on every gathered large particle,
+ * and the sums are added up with an allreduce of 2 doubles per large particle. A large particle thus feels every
+ * small particle exactly as that small particle feels it, whatever the range of the wrapped solver, which may send no
+ * ghosts at all. A large particle that is not among the gathered ones yet, because a small particle of the current
+ * universe became large by absorbing one, feels the small particles of the current universe and the ghosts instead.
+ * The large particles of the current universe act through copies taken at every prepare, at their current locations,
+ * and only the gathered large particles of other processes act through the gathered copies. Every large particle of
+ * the current universe has its own list of sources, which leaves it out, so its force never depends on the softening
+ * cancelling its force on itself.
+ * Without a solver of the small particles, small particles are tracers: massless test particles that feel the large
+ * particles only, while only the large particles interact with each other. No ghosts are needed then, so small
+ * particles are only ever sent to other processes when they migrate, and the cost of the forces is
+ * O(N_small * N_large).
+ */
+public class LargeParticleForceSolver implements ForceSolver {
+    private static final int DOUBLES_PER_PARTICLE = 7; // id bits, mass, radius, locX, locY, velocityX, velocityY
+
+    private ForceSolver solver; // solver of the forces between small particles, null if they are tracers
+    private ForceKernel kernel; // sums the forces of the large particles exactly
+    private Communicator communicator; // communication with the other processes
+    private ParticleStore large = new ParticleStore(); // large particles of every process, as of the last gather
+    private ParticleStore remoteLarge = new ParticleStore(); // gathered large particles of the other processes
+    private ParticleStore localLarge = new ParticleStore(); // large particles of the current universe
+    private HashSet<Long> localIds = new HashSet<>(); // ids of the large particles of the current universe
+    private ParticleStore small = new ParticleStore(); // small particles of the current universe handed to solver
+    private int[] smallIndex = new int[0]; // index in small of every particle of the current universe, -1 if large
+    private int[] largeIndex = new int[0]; // index in localLarge of every particle of the current universe, -1 if small
+    private ArrayList<ParticleStore> largeSources = new ArrayList<>(); // sources of the small particles besides solver
+    private ArrayList<ParticleStore> others = new ArrayList<>(); // the other local large particles of each one
+    private ArrayList<ArrayList<ParticleStore>> targetSources = new ArrayList<>(); // sources of each local large one
+    private HashMap<Long, Integer> localIndex = new HashMap<>(); // index in localLarge of every local large id
+    private ParticleStore targets = new ParticleStore(); // gathered large particles where the current process has them
+    private ArrayList<ParticleStore> smallSources = new ArrayList<>(); // small particles of the current universe
+    private double[] smallForce = new double[0]; // force of the small particles of the current process on targets
+    private double[] totalSmallForce = new double[0]; // force of the small particles of every process on targets
+    private double[] localSmallForce = new double[0]; // force of the small particles on every local large particle
+    private boolean[] reduced = new boolean[0]; // true for the local large particles among the gathered ones
+    private double[] localCount = new double[1]; // number of large particles of the current process
+    private double[] counts; // number of large particles of every process
+    private int[] countsPerRank, displacements; // layouts of the allgathers
+    private double[] sendBuffer = new double[0], receiveBuffer = new double[0]; // packed large particles
+
+    /**
+     * Constructor for LargeParticleForceSolver objects
+     * @param solver solver of the forces between small particles, null if small particles are tracers
+     * @param kernel kernel summing the forces of the large particles
+     * @param communicator communication with the other processes
+     */
+    public LargeParticleForceSolver(ForceSolver solver, ForceKernel kernel, Communicator communicator) {
+        this.solver = solver;
+        this.kernel = kernel;
+        this.communicator = communicator;
+        int size = communicator.getSize();
+        this.counts = new double[size];
+        this.countsPerRank = new int[size];
+        this.displacements = new int[size];
+        largeSources.add(remoteLarge);
+        largeSources.add(localLarge);
+    }
+
+    /**
+     * Gathers the large particles of every process. Every process calls this at every export, before the particles
+     * that left its universe are handed over, so that a large particle crossing into another universe is gathered
+     * from the process it leaves.
+     * @param particles particles of the current universe
+     * @throws MPIException
+     */
+    public void gather(ParticleStore particles) throws MPIException {
+        int size = communicator.getSize();
+        int local = 0;
+        for (int i = 0; i < particles.count; i++) {
+            if (!particles.large[i]) continue;
+            if (sendBuffer.length < (local + 1) * DOUBLES_PER_PARTICLE) {
+                sendBuffer = Arrays.copyOf(sendBuffer, 2 * (local + 1) * DOUBLES_PER_PARTICLE);
+            }
+            int offset = local++ * DOUBLES_PER_PARTICLE;
+            sendBuffer[offset] = Double.longBitsToDouble(particles.id[i]);
+            sendBuffer[offset + 1] = particles.mass[i];
+            sendBuffer[offset + 2] = particles.radius[i];
+            sendBuffer[offset + 3] = particles.locX[i];
+            sendBuffer[offset + 4] = particles.locY[i];
+            sendBuffer[offset + 5] = particles.velocityX[i];
+            sendBuffer[offset + 6] = particles.velocityY[i];
+        }
+
+        for (int r = 0; r < size; r++) {
+            countsPerRank[r] = 1;
+            displacements[r] = r;
+        }
+        localCount[0] = local;
+        communicator.allGatherv(localCount, 1, counts, countsPerRank, displacements);
+        int total = 0;
+        for (int r = 0; r < size; r++) {
+            countsPerRank[r] = (int)counts[r] * DOUBLES_PER_PARTICLE;
+            displacements[r] = total;
+            total += countsPerRank[r];
+        }
+        if (receiveBuffer.length < total) {
+            receiveBuffer = new double[total];
+        }
+        communicator.allGatherv(sendBuffer, local * DOUBLES_PER_PARTICLE, receiveBuffer, countsPerRank, displacements);
+
+        large.clear();
+        for (int offset = 0; offset < total; offset += DOUBLES_PER_PARTICLE) {
+            large.add(Double.doubleToRawLongBits(receiveBuffer[offset]), receiveBuffer[offset + 2],
+                    receiveBuffer[offset + 1], receiveBuffer[offset + 3], receiveBuffer[offset + 4],
+                    receiveBuffer[offset + 5], receiveBuffer[offset + 6], 0, 0, true);
+        }
+    }
+
+    /**
+     * @return the large particles of every process, as of the last gather
+     */
+    public ParticleStore getLargeParticles() {
+        return large;
+    }
+
+    @Override
+    public void prepare(ParticleStore particles, List<ParticleStore> halo) throws MPIException {
+        if (largeIndex.length < particles.count) {
+            largeIndex = new int[particles.mass.length];
+            smallIndex = new int[particles.mass.length];
+        }
+        localLarge.clear();
+        localIds.clear();
+        localIndex.clear();
+        for (int i = 0; i < particles.count; i++) {
+            largeIndex[i] = -1;
+            if (!particles.large[i]) continue;
+            largeIndex[i] = localLarge.addFrom(particles, i);
+            localIds.add(particles.id[i]);
+            localIndex.put(particles.id[i], largeIndex[i]);
+        }
+        remoteLarge.clear();
+        for (int j = 0; j < large.count; j++) {
+            if (!localIds.contains(large.id[j])) {
+                remoteLarge.addFrom(large, j);
+            }
+        }
+        // every local large particle feels the others, which are few, so each gets a copy of them without itself
+        for (int l = 0; l < localLarge.count; l++) {
+            if (others.size() == l) {
+                others.add(new ParticleStore());
+                targetSources.add(new ArrayList<>());
+            }
+            ParticleStore other = others.get(l);
+            other.clear();
+            for (int m = 0; m < localLarge.count; m++) {
+                if (m != l) {
+                    other.addFrom(localLarge, m);
+                }
+            }
+            ArrayList<ParticleStore> sources = targetSources.get(l);
+            sources.clear();
+            sources.add(remoteLarge);
+            sources.add(other);
+        }
+        if (solver == null) return;
+        small.clear();
+        for (int i = 0; i < particles.count; i++) {
+            smallIndex[i] = particles.large[i] ? -1 : small.addFrom(particles, i);
+        }
+        reduceSmallForces(halo);
+        solver.prepare(small, halo);
+    }
+
+    /**
+     * Sums the force of the small particles of every process on every local large particle. Every gathered large
+     * particle is taken where the current process has it, which is where the small particles of the current universe
+     * feel it, so that each pair of a small and a large particle exerts equal and opposite forces.
+     * @param halo ghosts of other processes, only felt by the local large particles that were not gathered
+     * @throws MPIException
+     */
+    private void reduceSmallForces(List<ParticleStore> halo) throws MPIException {
+        if (smallForce.length < 2 * large.count) {
+            smallForce = new double[2 * large.count];
+            totalSmallForce = new double[2 * large.count];
+        }
+        if (reduced.length < localLarge.count) {
+            localSmallForce = new double[2 * localLarge.count];
+            reduced = new boolean[localLarge.count];
+        }
+        smallSources.clear();
+        smallSources.add(small);
+        targets.clear();
+        for (int j = 0; j < large.count; j++) {
+            Integer l = localIndex.get(large.id[j]);
+            targets.addFrom(l != null ? localLarge : large, l != null ? l : j);
+            kernel.computeForce(targets, j, smallSources);
+            smallForce[2 * j] = targets.forceX[j];
+            smallForce[2 * j + 1] = targets.forceY[j];
+        }
+        communicator.allReduceSum(smallForce, totalSmallForce, 2 * large.count);
+        Arrays.fill(reduced, 0, localLarge.count, false);
+        for (int j = 0; j < large.count; j++) {
+            Integer l = localIndex.get(large.id[j]);
+            if (l == null) continue;
+            localSmallForce[2 * l] = totalSmallForce[2 * j];
+            localSmallForce[2 * l + 1] = totalSmallForce[2 * j + 1];
+            reduced[l] = true;
+        }
+        for (int l = 0; l < localLarge.count; l++) {
+            if (reduced[l]) continue;
+            // not gathered yet, so no other process sums its small particles for it
+            localSmallForce[2 * l] = localSmallForce[2 * l + 1] = 0;
+            targetSources.get(l).add(small);
+            targetSources.get(l).addAll(halo);
+        }
+    }
+
+    @Override
+    public void computeForce(ParticleStore particles, int index) {
+        int l = largeIndex[index];
+        if (l >= 0) {
+            kernel.computeForce(particles, index, targetSources.get(l));
+            if (solver != null) {
+                particles.forceX[index] += localSmallForce[2 * l];
+                particles.forceY[index] += localSmallForce[2 * l + 1];
+            }
+            return;
+        }
+        if (solver == null) {
+            // tracers feel the large particles only
+            kernel.computeForce(particles, index, largeSources);
+            return;
+        }
+        int s = smallIndex[index];
+        solver.computeForce(small, s);
+        kernel.computeForce(particles, index, largeSources);
+        particles.forceX[index] += small.forceX[s];
+        particles.forceY[index] += small.forceY[s];
+    }
+
+    /**
+     * Tracers need no ghosts, as every process has every large particle
+     */
+    @Override
+    public double getInteractionRange() {
+        return solver == null ? 0 : solver.getInteractionRange();
+    }
+}
@@ -0,0 +1,146 @@
+import mpi.MPIException;
+
+/**
+ * Class moving the cuts of the Decomposition so that every process has about the same amount of work.
+ * Every few iterations the processes share the time they spent calculating forces and moving particles, and the
+ * cuts between the columns and between the rows of processes are moved so that each column and each row of
+ * processes gets the same share of the total. The cost of a column or row is assumed to be spread evenly over its
+ * width, so the new cuts are found by interpolating the cumulative cost over the current cuts.
+ * Only the positions of the cuts change, never the grid of processes, so every process keeps the same neighbours.
+ * A cut moves at most half way into either of the domains next to it, so that particles only ever change hands
+ * between neighbouring processes, and no domain becomes narrower than the minimum width.
+ */
+public class LoadBalancer {
+    private Decomposition decomposition; // decomposition whose cuts are moved
+    private Communicator communicator; // communication with the other processes
+    private int interval; // number of iterations between repartitions
+    private double minimumWidth; // smallest width of a column or row of processes
+    private double[] cost; // cost of the current process, to share with the other processes
+    private double[] costs; // cost of every process since the last repartition
+    private int[] counts, displacements; // layout of costs for allGatherv
+    private double lastImbalance; // imbalance measured at the last repartition, 0 before the first one
+
+    /**
+     * Constructor for LoadBalancer objects
+     * @param decomposition decomposition whose cuts are moved
+     * @param communicator communication with the other processes
+     * @param interval number of iterations between repartitions
+     * @param minimumWidth smallest width of a column or row of processes
+     */
+    public LoadBalancer(Decomposition decomposition, Communicator communicator, int interval, double minimumWidth) {
+        this.decomposition = decomposition;
+        this.communicator = communicator;
+        this.interval = interval;
+        this.minimumWidth = Math.min(minimumWidth,
+                Math.min(decomposition.getDomainWidth(), decomposition.getDomainHeight()));
+        int size = communicator.getSize();
+        this.cost = new double[1];
+        this.costs = new double[size];
+        this.counts = new int[size];
+        this.displacements = new int[size];
+        for (int r = 0; r < size; r++) {
+            counts[r] = 1;
+            displacements[r] = r;
+        }
+    }
+
+    /**
+     * @return smallest width of a column or row of processes
+     */
+    public double getMinimumWidth() {
+        return minimumWidth;
+    }
+
+    /**
+     * @param iteration current iteration of the simulation
+     * @return true if the domain is repartitioned at the end of the iteration
+     */
+    public boolean isDue(int iteration) {
+        return iteration % interval == 0;
+    }
+
+    /**
+     * Shares the cost of every process and moves the cuts of the decomposition to balance it.
+     * Every process calls this at the same iteration and computes the same cuts from the same costs.
+     * @param computeNanos time the current process spent calculating since the last repartition
+     * @throws MPIException
+     */
+    public void rebalance(double computeNanos) throws MPIException {
+        cost[0] = computeNanos;
+        communicator.allGatherv(cost, 1, costs, counts, displacements);
+
+        double[] columnCosts = new double[decomposition.getColumns()];
+        double[] rowCosts = new double[decomposition.getRows()];
+        double total = 0, max = 0;
+        for (int r = 0; r < costs.length; r++) {
+            columnCosts[decomposition.getColumn(r)] += costs[r];
+            rowCosts[decomposition.getRow(r)] += costs[r];
+            total += costs[r];
+            max = Math.max(max, costs[r]);
+        }
+        if (total <= 0) return;
+        double imbalance = max / (total / costs.length);
+        if (communicator.getRank() == 0) {
+            System.out.println("Load imbalance (max/mean) " + (lastImbalance > 0 ? "went from " + lastImbalance + " to "
+                    : "is ") + imbalance + ", repartitioning");
+        }
+        this.lastImbalance = imbalance;
+
+        decomposition.setCuts(balanceCuts(decomposition.getXCuts(), columnCosts),
+                balanceCuts(decomposition.getYCuts(), rowCosts));
+    }
+
+    /**
+     * Finds the cuts giving every slab the same share of the cost, then moves the current cuts towards them
+     * @param cuts current bounds of the columns or rows of processes
+     * @param slabCosts cost of every column or row of processes
+     * @return the new cuts
+     */
+    private double[] balanceCuts(double[] cuts, double[] slabCosts) {
+        int slabs = slabCosts.length;
+        double length = cuts[slabs];
+        double total = 0;
+        for (double slabCost : slabCosts) {
+            total += slabCost;
+        }
+
+        // invert the cumulative cost, which is piecewise linear over the current cuts
+        double[] target = new double[slabs + 1];
+        target[slabs] = length;
+        int slab = 0;
+        double before = 0; // cumulative cost up to the start of slab
+        for (int i = 1; i < slabs; i++) {
+            double wanted = total * i / slabs;
+            while (slab < slabs - 1 && before + slabCosts[slab] < wanted) {
+                before += slabCosts[slab++];
+            }
+            double fraction = slabCosts[slab] > 0 ? Math.min((wanted - before) / slabCosts[slab], 1) : 0.5;
+            target[i] = cuts[slab] + fraction * (cuts[slab + 1] - cuts[slab]);
+        }
+
+        // keep every slab at least minimumWidth wide
+        for (int i = 1; i < slabs; i++) {
+            target[i] = Math.max(target[i], target[i - 1] + minimumWidth);
+        }
+        for (int i = slabs - 1; i > 0; i--) {
+            target[i] = Math.min(target[i], target[i + 1] - minimumWidth);
+        }
+
+        // move towards the target only as far as every cut may go, which keeps the widths above minimumWidth
+        // because the result lies between two sets of cuts that both respect it
+        double step = 1;
+        for (int i = 1; i < slabs; i++) {
+            double move = Math.abs(target[i] - cuts[i]);
+            double limit = 0.5 * Math.min(cuts[i] - cuts[i - 1], cuts[i + 1] - cuts[i]);
+            if (move > limit) {
+                step = Math.min(step, limit / move);
+            }
+        }
+        double[] newCuts = new double[slabs + 1];
+        newCuts[slabs] = length;
+        for (int i = 1; i < slabs; i++) {
+            newCuts[i] = cuts[i] + step * (target[i] - cuts[i]);
+        }
+        return newCuts;
+    }
+}
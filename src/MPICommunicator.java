@@ -0,0 +1,154 @@
+import mpi.*;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Communicator between MPI processes, sending every message through MPI.COMM_WORLD or, once the grid of processes is
+ * created, through a periodic Cartesian communicator over it.
+ * Received messages are written into the buffer of their Message, which is grown as needed and otherwise reused.
+ */
+public class MPICommunicator implements Communicator {
+    private Intracomm comm; // MPI communicator every message is sent through
+    private int rank; // rank of process
+    private int size; // size of processes being run
+    private int columns, rows; // layout of the grid of processes
+
+    /**
+     * Constructor for MPICommunicator objects, MPI must have been initialized already
+     * @throws MPIException
+     */
+    public MPICommunicator() throws MPIException {
+        this(MPI.COMM_WORLD, MPI.COMM_WORLD.getSize(), 1);
+    }
+
+    /**
+     * Constructor for MPICommunicator objects sending through the given MPI communicator
+     * @param comm
+     * @param columns number of processes along the width of the grid
+     * @param rows number of processes along the height of the grid
+     * @throws MPIException
+     */
+    private MPICommunicator(Intracomm comm, int columns, int rows) throws MPIException {
+        this.comm = comm;
+        this.rank = comm.getRank();
+        this.size = comm.getSize();
+        this.columns = columns;
+        this.rows = rows;
+    }
+
+    @Override
+    public int getRank() {
+        return rank;
+    }
+
+    @Override
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Creates a Cartesian communicator with reorder set, which lets MPI place neighbouring positions of the grid on
+     * the same node. MPI numbers the ranks of a Cartesian communicator in row-major order of their coordinates, which
+     * are given as (row, column) so that the numbering matches the Decomposition.
+     */
+    @Override
+    public Communicator createGrid(int columns, int rows) throws MPIException {
+        CartComm grid = comm.createCart(new int[] {rows, columns}, new boolean[] {true, true}, true);
+        return new MPICommunicator(grid, columns, rows);
+    }
+
+    @Override
+    public int rankAt(int column, int row) throws MPIException {
+        int[] coords = {Math.floorMod(row, rows), Math.floorMod(column, columns)};
+        if (comm instanceof CartComm) {
+            return ((CartComm)comm).getRank(coords);
+        }
+        return coords[0] * columns + coords[1];
+    }
+
+    @Override
+    public void send(ByteBuffer buffer, int destination, int tag) throws MPIException {
+        comm.send(buffer, buffer.limit(), MPI.BYTE, destination, tag);
+    }
+
+    /**
+     * Probes for the message first so that the receive buffer can be sized from it
+     */
+    @Override
+    public void receive(Message message, int source, int tag) throws MPIException {
+        Status status = comm.probe(source == ANY_SOURCE ? MPI.ANY_SOURCE : source,
+                tag == ANY_TAG ? MPI.ANY_TAG : tag);
+        int bytes = status.getCount(MPI.BYTE);
+        message.source = status.getSource();
+        message.tag = status.getTag();
+        message.buffer = HaloCodec.ensureCapacity(message.buffer, bytes);
+        comm.recv(message.buffer, bytes, MPI.BYTE, message.source, message.tag);
+        message.buffer.limit(bytes);
+        message.complete = true;
+    }
+
+    @Override
+    public void iSend(Message message, ByteBuffer buffer, int destination, int tag) throws MPIException {
+        message.source = rank;
+        message.tag = tag;
+        message.complete = false;
+        message.request = comm.iSend(buffer, buffer.limit(), MPI.BYTE, destination, tag);
+    }
+
+    @Override
+    public void iRecv(Message message, int bytes, int source, int tag) throws MPIException {
+        message.buffer = HaloCodec.ensureCapacity(message.buffer, bytes);
+        message.buffer.limit(bytes);
+        message.source = source;
+        message.tag = tag;
+        message.complete = false;
+        message.request = comm.iRecv(message.buffer, bytes, MPI.BYTE, source, tag);
+    }
+
+    @Override
+    public int waitAny(Message[] messages) throws MPIException {
+        int pending = 0;
+        for (Message message : messages) {
+            if (!message.complete) pending++;
+        }
+        if (pending == 0) return -1;
+        Request[] requests = new Request[pending];
+        int[] indices = new int[pending];
+        pending = 0;
+        for (int i = 0; i < messages.length; i++) {
+            if (!messages[i].complete) {
+                requests[pending] = (Request)messages[i].request;
+                indices[pending++] = i;
+            }
+        }
+        int index = indices[Request.waitAny(requests)];
+        messages[index].complete = true;
+        return index;
+    }
+
+    @Override
+    public void waitAll(Message[] messages) throws MPIException {
+        for (Message message : messages) {
+            if (!message.complete) {
+                ((Request)message.request).waitFor();
+                message.complete = true;
+            }
+        }
+    }
+
+    @Override
+    public void allReduceSum(double[] send, double[] receive, int count) throws MPIException {
+        comm.allReduce(send, receive, count, MPI.DOUBLE, MPI.SUM);
+    }
+
+    @Override
+    public void allReduceMax(double[] send, double[] receive, int count) throws MPIException {
+        comm.allReduce(send, receive, count, MPI.DOUBLE, MPI.MAX);
+    }
+
+    @Override
+    public void allGatherv(double[] send, int sendCount, double[] receive, int[] counts, int[] displacements)
+            throws MPIException {
+        comm.allGatherv(send, sendCount, MPI.DOUBLE, receive, counts, displacements, MPI.DOUBLE);
+    }
+}
@@ -8,16 +8,6 @@ public class MainApp {
 
     public static void main(String... args) throws MPIException, IOException, ClassNotFoundException {
 
-        MPI.Init(args);
-        int myRank = MPI.COMM_WORLD.getRank();
-        int mySize = MPI.COMM_WORLD.getSize();
-
-        // check to make sure that the number of processes is a square number to ensure an N x N grid can be made
-        if (Math.sqrt(mySize) != (double)(int)Math.sqrt(mySize)) {
-            if (myRank == 0) System.out.println("Number of processors must be a square (i.e. 1, 4, 9, 16, ...)");
-            System.exit(1);
-        }
-
         // exit if initialspec.txt file is not given
         if (args.length < 1 ) {
             System.exit(1);
@@ -26,20 +16,46 @@ public class MainApp {
         // initialize specs
         InitialSpec specs = new InitialSpec(args[0]);
 
-        // create universe per processor given specs, rank, and size
-        Universe universe = new Universe(specs, myRank, mySize);
+        if (specs.transport.equals("threads")) {
+            // every rank runs as a thread of this JVM, so no MPI runtime is needed
+            ThreadCommunicator.run(specs.ranks, communicator -> simulate(specs, communicator, args));
+        } else {
+            MPI.Init(args);
+            simulate(specs, new MPICommunicator(), args);
+            MPI.Finalize();
+        }
+    }
+
+    /**
+     * Runs the simulation on a single rank
+     * @param specs InitialSpec object created from parsing the initialspec.txt file
+     * @param communicator communication with the other ranks
+     * @param args command line arguments
+     * @throws MPIException
+     * @throws IOException
+     */
+    private static void simulate(InitialSpec specs, Communicator communicator, String[] args)
+            throws MPIException, IOException {
+        int myRank = communicator.getRank();
+        int mySize = communicator.getSize();
 
-        // generate initial PPM files
-        universe.generatePPM("initialbrd.ppm");
+        // create universe per processor given specs and communicator
+        Universe universe = new Universe(specs, communicator);
+
+        // generate initial PPM file, unless the simulation continues from a checkpoint
+        if (universe.getIteration() == 1) {
+            universe.generatePPM("initialbrd.ppm");
+        }
 
         // main loop for simulations. Simulates as many times as specified in the Time Slots field of the initialspec file
-        for (int i = 0; i < specs.timeSlots; i++) {
+        for (int i = universe.getIteration() - 1; i < specs.timeSlots; i++) {
             if (myRank == 0) {
                 System.out.println("Starting iteration " + i);
             }
 
             // at the start of every loop, synchronize data across processors within each others horizon
-            for (int j = 0; j < mySize; j++) {
+            // (the non-blocking exchange synchronizes every processor at once while simulating the iteration)
+            for (int j = 0; j < mySize && !universe.usesNonBlockingExchange(); j++) {
                 try {
                     universe.syncData(j);
                 } catch (Exception e) {
@@ -59,6 +75,7 @@ public class MainApp {
             universe.generatePPM(args[1]);
         }
 
-        MPI.Finalize();
+        universe.closeSnapshots();
+        universe.reportCommunication();
     }
 }
@@ -0,0 +1,29 @@
+import java.nio.ByteBuffer;
+
+/**
+ * Handle of a message sent or received through a Communicator.
+ * Handles are reused from one exchange to the next, and so are their buffers.
+ */
+public class Message {
+    ByteBuffer buffer; // message from position 0 to its limit, once a receive has completed
+    int source; // rank the message came from
+    int tag; // tag of the message
+    boolean complete; // true once the send or receive has completed
+    Object request; // communicator-specific state of an outstanding send or receive
+
+    /**
+     * Constructor for Message objects
+     * @param buffer initial buffer to receive into, may be null
+     */
+    public Message(ByteBuffer buffer) {
+        this.buffer = buffer;
+        this.complete = true;
+    }
+
+    /**
+     * @return number of bytes in the message
+     */
+    public int bytes() {
+        return buffer.limit();
+    }
+}
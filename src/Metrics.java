@@ -0,0 +1,126 @@
+import mpi.MPIException;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Arrays;
+
+/**
+ * Class collecting the time a process spends in every phase of an iteration, together with a few counters, and
+ * aggregating them over every process every few iterations.
+ * Phases are timed with laps: the caller keeps the time the current phase started at and hands it to lap when the
+ * phase ends, which costs one call to System.nanoTime per phase. Counters that only ever grow, such as the bytes a
+ * process sent, are set to their totals and reported as the increase since the last report.
+ * At every report the minimum, average and maximum of every metric over the processes are found with three reductions,
+ * and the process with rank 0 appends them to a CSV file with the columns iteration,metric,min,avg,max. A maximum far
+ * above the average points to a straggling process.
+ */
+public class Metrics {
+    static final int SYNC = 0; // waiting for and exchanging the data of other processes
+    static final int ADD_ENTERED = 1; // adding the particles other processes handed over
+    static final int FORCES = 2; // calculating the forces
+    static final int INTEGRATE = 3; // updating locations and velocities
+    static final int OUTPUT = 4; // snapshots, frames and checkpoints
+    static final int BALANCE = 5; // moving the bounds of the universes
+    static final int MIGRATE = 6; // handing over particles and selecting ghosts
+    static final int PARTICLES = 7; // particles in the universe after the last integration
+    static final int MIGRATIONS = 8; // particles handed over to other processes
+    static final int BYTES_SENT = 9; // bytes sent to other processes
+    static final int BYTES_RECEIVED = 10; // bytes received from other processes
+    static final int FORCE_EVALUATIONS = 11; // forces calculated, over every sub-step of the block time-steps
+    static final int MERGES = 12; // particles absorbed by other particles they collided with
+    private static final int PHASES = 7; // number of timed phases, which come before the other metrics
+    private static final String[] NAMES = {"sync_ms", "add_entered_ms", "forces_ms", "integrate_ms", "output_ms",
+            "balance_ms", "migrate_ms", "particles", "migrations", "bytes_sent", "bytes_received",
+            "force_evaluations", "merges"};
+
+    private Communicator communicator; // communication with the other processes
+    private String fileName; // CSV file the reports are appended to by the process with rank 0
+    private double[] values; // metrics of the current process since the last report
+    private double[] totals; // totals of the growing counters at the last report
+    private double[] negated, minimums, maximums, sums; // arrays of the reductions
+    private boolean reported; // true once the first report replaced the CSV file
+
+    /**
+     * Constructor for Metrics objects
+     * @param communicator communication with the other processes
+     * @param fileName CSV file to write the reports to
+     */
+    public Metrics(Communicator communicator, String fileName) {
+        this.communicator = communicator;
+        this.fileName = fileName;
+        int count = NAMES.length;
+        this.values = new double[count];
+        this.totals = new double[count];
+        this.negated = new double[count];
+        this.minimums = new double[count];
+        this.maximums = new double[count];
+        this.sums = new double[count];
+    }
+
+    /**
+     * Adds the time since the start of a phase to it
+     * @param phase
+     * @param start time the phase started at, from System.nanoTime
+     * @return the current time, which is the start of the next phase
+     */
+    public long lap(int phase, long start) {
+        long now = System.nanoTime();
+        values[phase] += now - start;
+        return now;
+    }
+
+    /**
+     * Sets a metric that is reported as it is
+     * @param metric
+     * @param value
+     */
+    public void set(int metric, double value) {
+        values[metric] = value;
+    }
+
+    /**
+     * Sets a counter that only ever grows, which is reported as its increase since the last report
+     * @param metric
+     * @param total
+     */
+    public void setTotal(int metric, double total) {
+        values[metric] = total - totals[metric];
+    }
+
+    /**
+     * Aggregates the metrics of every process, writes them to the CSV file and starts collecting the next report.
+     * The first report replaces the CSV file. Every process calls this at the same iteration.
+     * @param iteration current iteration of the simulation
+     * @throws MPIException
+     */
+    public void report(int iteration) throws MPIException {
+        for (int m = 0; m < PHASES; m++) {
+            values[m] /= 1e6; // nanoseconds to milliseconds
+        }
+        for (int m = 0; m < values.length; m++) {
+            negated[m] = -values[m];
+        }
+        communicator.allReduceMax(values, maximums, values.length);
+        communicator.allReduceMax(negated, minimums, values.length);
+        communicator.allReduceSum(values, sums, values.length);
+        if (communicator.getRank() == 0) {
+            try (PrintWriter out = new PrintWriter(new FileWriter(fileName, reported))) {
+                if (!reported) {
+                    out.println("iteration,metric,min,avg,max");
+                }
+                for (int m = 0; m < values.length; m++) {
+                    out.println(iteration + "," + NAMES[m] + "," + (-minimums[m]) + ","
+                            + sums[m] / communicator.getSize() + "," + maximums[m]);
+                }
+            } catch (IOException e) {
+                System.out.println(e);
+            }
+        }
+        for (int m = MIGRATIONS; m < values.length; m++) {
+            totals[m] += values[m];
+        }
+        Arrays.fill(values, 0);
+        reported = true;
+    }
+}
@@ -1,123 +1,172 @@
-import java.util.ArrayList;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
 
 /**
- * Class to help with the construction of a PPM file to display the state of a process's particle locations
+ * Class to render the particle locations of a process into its region of a binary (P6) PPM image of the whole universe.
+ * One pixel covers one unit of length. The universe is periodic, so a large particle reaching over an edge of the
+ * image is also drawn on the opposite edge. The pixels of the region are kept in a flat row-major array of rgb bytes
+ * that is reused from one image to the next.
+ * Every process writes the rows of its own region straight to their offsets in the shared image file, so the image
+ * of the whole universe is assembled without gathering it on one process.
  */
 public class PPM {
-    private ArrayList<ArrayList<int[]>> values; // rgb values in a 2D grid
-    private String matrix; // values as a String
-    private String img; // final String to pass into the output file
-    private int gridSize; // gridSize of the process
-    private int row; // row of the process when laid out in a square grid with the other processes
-    private int column; // column of the process when laid out in a square grid with the other processes
+    private int imageWidth, imageHeight; // size of the image of the whole universe in pixels
+    private double universeWidth, universeHeight; // size of the whole universe, the period of the locations
+    private int left, top; // pixel of the whole image at the top left corner of the region
+    private int width, height; // size of the region in pixels
+    private byte[] pixels; // rgb values of the region, row-major
+    private byte[] header; // header of the image file
+    private HashSet<Long> localLarge; // ids of the large particles of the current universe, reused between images
 
     /**
-     * Constructor for PPM file
-     * @param gridSize
-     * @param smallParticles
-     * @param largeParticles
-     * @param row
-     * @param column
+     * Constructor for PPM objects
+     * @param width width of the whole universe, rounded up to whole pixels for the image
+     * @param height height of the whole universe, rounded up to whole pixels for the image
      */
-    public PPM(int gridSize, List<Particle> smallParticles, List<Particle> largeParticles, int row, int column) {
-        this.gridSize = gridSize;
-        this.row = row;
-        this.column = column;
-        this.values = initValues();
-        addLargeParticles(largeParticles);
-        addSmallParticles(smallParticles);
-        createMatrix();
-        createImg();
+    public PPM(double width, double height) {
+        this.universeWidth = width;
+        this.universeHeight = height;
+        this.imageWidth = (int)Math.ceil(width);
+        this.imageHeight = (int)Math.ceil(height);
+        this.header = ("P6\n" + imageWidth + " " + imageHeight + "\n255\n").getBytes(StandardCharsets.US_ASCII);
+        this.pixels = new byte[0];
+        this.localLarge = new HashSet<>();
     }
 
     /**
-     * Initializes the gridSize x gridSize grid of rgb values to all 0 0 0 (r, g, b).
-     * @return initialized values variable.
+     * Clears the region and draws the particles into it.
+     * The region of a process is the pixels whose top left corner lies in its universe, so the regions of all processes
+     * cover the image exactly once. Large particles of other processes are drawn where they reach into the region,
+     * unless they are also in the current universe, where its own copy is drawn.
+     * @param particles particles to draw
+     * @param others stores holding the large particles of other processes, either as ghosts or replicated
+     * @param x0 left edge of the universe of the process
+     * @param y0 top edge of the universe of the process
+     * @param x1 right edge of the universe of the process
+     * @param y1 bottom edge of the universe of the process
      */
-    private ArrayList initValues() {
-        ArrayList<ArrayList<int[]>> vals = new ArrayList();
-        for (int i = 0; i < gridSize; i++) {
-            ArrayList currRow = new ArrayList();
-            for (int j = 0; j < gridSize; j++) {
-                int[] rgb = new int[3];
-                rgb[0] = 0;
-                rgb[1] = 0;
-                rgb[2] = 0;
-                currRow.add(rgb);
+    public void render(ParticleStore particles, List<ParticleStore> others, double x0, double y0, double x1,
+                       double y1) {
+        this.left = Math.min((int)Math.ceil(x0), imageWidth);
+        this.top = Math.min((int)Math.ceil(y0), imageHeight);
+        this.width = Math.min((int)Math.ceil(x1), imageWidth) - left;
+        this.height = Math.min((int)Math.ceil(y1), imageHeight) - top;
+        int bytes = 3 * width * height;
+        if (pixels.length < bytes) {
+            pixels = new byte[bytes];
+        } else {
+            Arrays.fill(pixels, 0, bytes, (byte)0);
+        }
+        localLarge.clear();
+        for (int p = 0; p < particles.count; p++) {
+            if (particles.large[p]) {
+                localLarge.add(particles.id[p]);
+                addLargeParticle(particles.locX[p], particles.locY[p], particles.radius[p]);
+            }
+        }
+        for (ParticleStore store : others) {
+            for (int p = 0; p < store.count; p++) {
+                if (store.large[p] && !localLarge.contains(store.id[p])) {
+                    addLargeParticle(store.locX[p], store.locY[p], store.radius[p]);
+                }
             }
-            vals.add(currRow);
         }
-        return vals;
+        addSmallParticles(particles);
     }
 
     /**
-     * Adds the large particles to the values. Sets the blue value within its radius to 255
-     * @param largeParticles
+     * Adds a large particle to the pixels of the region at every periodic image of its location. Sets the blue value
+     * within its radius to 255, only for the pixels inside the region.
+     * @param locX
+     * @param locY
+     * @param radius
      */
-    private void addLargeParticles(List<Particle> largeParticles) {
-        for (Particle particle : largeParticles) {
-            double x = particle.locX - (gridSize * column);
-            double y = particle.locY - (gridSize * row);
-            double radius = particle.radius;
-            for (double i = (x - radius); i < (x + radius); i++) {
-                for (double j = (y - radius); j < (y + radius); j++) {
-                    if (i >= 0 && j >= 0 && i <= gridSize && j <= gridSize) {
-                        double xLength = Math.abs(i - x);
-                        double yLength = Math.abs(j - y);
-                        if ((Math.pow(xLength, 2) + Math.pow(yLength, 2)) < Math.pow(radius, 2)) {
-                            this.values.get((int)j).get((int)i)[2] = 255;
-                        }
-                    }
-                }
+    private void addLargeParticle(double locX, double locY, double radius) {
+        for (int xImage = -1; xImage <= 1; xImage++) {
+            for (int yImage = -1; yImage <= 1; yImage++) {
+                addDisc(locX + xImage * universeWidth - left, locY + yImage * universeHeight - top, radius);
             }
         }
     }
 
     /**
-     * Adds the small particles to the values. Adds a value of 1 to the pixel that the small particle is in.
-     * @param smallParticles
+     * Sets the blue value of the pixels of the region within a disc to 255
+     * @param x centre of the disc relative to the region
+     * @param y centre of the disc relative to the region
+     * @param radius
      */
-    private void addSmallParticles(List<Particle> smallParticles) {
-        for (Particle particle : smallParticles) {
-            int x = (int)(particle.locX - (gridSize * column));
-            int y = (int)(particle.locY - (gridSize * row));
-            if (x >= 0 && y >= 0 && x < gridSize && y < gridSize && this.values.get(y).get(x)[2] != 255) {
-                this.values.get(y).get(x)[0] = Math.min(this.values.get(y).get(x)[0] + 1, 255);
+    private void addDisc(double x, double y, double radius) {
+        int iStart = Math.max((int)Math.floor(x - radius), 0), iEnd = Math.min((int)Math.ceil(x + radius), width);
+        int jStart = Math.max((int)Math.floor(y - radius), 0), jEnd = Math.min((int)Math.ceil(y + radius), height);
+        for (int j = jStart; j < jEnd; j++) {
+            double yLength = j + 0.5 - y;
+            for (int i = iStart; i < iEnd; i++) {
+                double xLength = i + 0.5 - x;
+                if (xLength * xLength + yLength * yLength < radius * radius) {
+                    pixels[3 * (j * width + i) + 2] = (byte)255;
+                }
             }
         }
     }
 
     /**
-     * Turns the current state of the values variable to a string.
+     * Adds the small particles to the pixels. Adds a value of 1 to the red value of the pixel that the small particle
+     * is in, unless a large particle covers it.
+     * @param particles
      */
-    private void createMatrix() {
-        String formatted = "";
-        for (ArrayList<int[]> row : values) {
-            for (int[] rgb : row) {
-                formatted += "" + rgb[0] + " " + rgb[1] + " " + rgb[2] + " ";
+    private void addSmallParticles(ParticleStore particles) {
+        for (int p = 0; p < particles.count; p++) {
+            if (particles.large[p]) continue;
+            int x = (int)Math.floor(particles.locX[p]) - left;
+            int y = (int)Math.floor(particles.locY[p]) - top;
+            if (x >= 0 && y >= 0 && x < width && y < height) {
+                int pixel = 3 * (y * width + x);
+                int red = pixels[pixel] & 0xFF;
+                if (pixels[pixel + 2] == 0 && red < 255) {
+                    pixels[pixel] = (byte)(red + 1);
+                }
             }
-            formatted += "\n";
         }
-        this.matrix = formatted;
     }
 
     /**
-     * Formats the matrix string into a valid String for a PPM file.
+     * Writes the region into the image file, which every process writes its own region of.
+     * The file is not truncated when it is opened, so that the regions other processes have written already are kept.
+     * @param fileName image file of the whole universe
+     * @param writeHeader true for the one process writing the header and setting the size of the file
+     * @throws IOException
      */
-    private void createImg() {
-        String headers = "";
-        headers += "P3\n";
-        headers += "" + gridSize + " " + gridSize + "\n";
-        headers += "255\n";
-        this.img = headers + this.matrix;
+    public void write(String fileName, boolean writeHeader) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            if (writeHeader) {
+                writeFully(channel, ByteBuffer.wrap(header), 0);
+                channel.truncate(header.length + 3L * imageWidth * imageHeight);
+            }
+            for (int j = 0; j < height; j++) {
+                long offset = header.length + 3L * ((long)(top + j) * imageWidth + left);
+                writeFully(channel, ByteBuffer.wrap(pixels, 3 * j * width, 3 * width), offset);
+            }
+        }
     }
 
     /**
-     * @return current state of img variable
+     * Writes the whole buffer at the given offset of the file
+     * @param channel
+     * @param buffer
+     * @param offset
+     * @throws IOException
      */
-    @Override
-    public String toString() {
-        return img;
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long offset) throws IOException {
+        while (buffer.hasRemaining()) {
+            offset += channel.write(buffer, offset);
+        }
     }
-}
\ No newline at end of file
+}
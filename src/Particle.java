@@ -1,117 +1,94 @@
-import java.io.Serializable;
-import java.util.List;
-
 /**
- * Class to represent particles in a given universe.
+ * Class holding the physics of the particles in a given universe.
+ * Particles themselves live in the columns of a ParticleStore and are referred to by their index.
  * There is no distinction between small and large particles in an individual process.
  * This is because the physics are the same between them.
- * Only the Universe objects contain different lists for small and large particles for the later purpose of
- * distinguishing them in the PPM file.
+ * The large column of the ParticleStore is only used for the later purpose of distinguishing them in the PPM file.
  */
-public class Particle implements Serializable {
-    double mass, radius, locX, locY, velocityX, velocityY, forceX, forceY;
+public class Particle {
 
-    public Particle(double radius, double mass, double locX, double locY,
-                    double velocityX, double velocityY, double forceX, double forceY) {
-        this.radius = radius;
-        this.mass = mass;
-        this.locX = locX;
-        this.locY = locY;
-        this.velocityX = velocityX;
-        this.velocityY = velocityY;
-        this.forceX = forceX;
-        this.forceY = forceY;
+    private Particle() {
     }
 
     /**
-     * Constructor for small particles.
-     * Gives particles a random starting location and uses the radius and mass as specified in initialspec.txt file.
-     * All small particles start with no velocity and no force acting on them.
-     * @param radius
-     * @param mass
-     * @param gridSize
-     * @param row
-     * @param column
-     * @return a Particle object representing a small particle
-     */
-    public static Particle createSmallParticle(double radius, double mass, double gridSize, int row, int column) {
-        double locX = (Math.random() + column) * gridSize;
-        double locY = (Math.random() + row) * gridSize;
-        return new Particle(radius, mass, locX, locY, 0, 0, 0, 0);
-    }
-
-    /**
-     * Constructor for large particles.
+     * Creates a large particle.
      * Creates the particles as specified in the initialspec.txt file
      * All large particles start with no velocity and no force acting on them.
+     * @param particles store to add the particle to
+     * @param id id of the particle, unique over the whole universe
      * @param specs
-     * @param gridSize
+     * @param width width of the universe of a process
+     * @param height height of the universe of a process
      * @param row
      * @param column
-     * @return a Particle object representing a large particle
+     * @return index of the large particle in the store
      */
-    public static Particle createLargeParticle(LargeParticleSpec specs, double gridSize, int row, int column) {
-        double locX = specs.locX + (gridSize * column);
-        double locY = specs.locY + (gridSize * row);
-        System.out.println("Row: " + row + " Column: " + column + " LocX: " + locX + " LocY: " + locY);
-        return new Particle(specs.radius, specs.mass, locX, locY, 0, 0, 0, 0);
+    public static int createLargeParticle(ParticleStore particles, long id, LargeParticleSpec specs, double width,
+                                          double height, int row, int column) {
+        double locX = specs.locX + (width * column);
+        double locY = specs.locY + (height * row);
+        return particles.add(id, specs.radius, specs.mass, locX, locY, 0, 0, 0, 0, true);
     }
 
     /**
-     * Updates the force on the particle in the x and y direction given a list of particles acting on the current particle.
-     * @param particles
+     * Kicks a particle, updating its velocity from its precomputed forceX and forceY values.
+     * The leapfrog integrator kicks a particle by half of its step before and after every drift.
+     * A massless tracer feels no force, so its forceX and forceY hold its acceleration instead.
+     * @param particles store holding the particle
+     * @param index index of the particle in its store
+     * @param time time to accelerate the particle for
      */
-    public void calculateForceOnParticle(List<Particle> particles) {
-        double forceX = 0;
-        double forceY = 0;
-        for (Particle particle : particles) {
-            if (particle == this) continue;
-            double xLength = particle.locX - locX;
-            double yLength = particle.locY - locY;
-            double distance = Math.sqrt(Math.pow(xLength, 2) + Math.pow(yLength, 2));
-            double massProduct = mass * particle.mass;
-            double totalForce = 3 * massProduct / Math.pow(distance, 2);
-            forceX += xLength / distance * totalForce;
-            forceY += yLength / distance * totalForce;
-        }
-        this.forceX = forceX;
-        this.forceY = forceY;
+    public static void kick(ParticleStore particles, int index, double time) {
+        double mass = particles.mass[index];
+        double scale = mass == 0 ? time : time / mass;
+        particles.velocityX[index] += particles.forceX[index] * scale;
+        particles.velocityY[index] += particles.forceY[index] * scale;
     }
 
     /**
-     * Updates the location and velocity of the particle from the precomputed forceX and forceY values.
-     * Factors in the initial state of the locX, locY, velocityX, and velocityY.
-     * @param timeStep
-     * @param gridSize
-     * @param size
+     * Drifts a particle, updating its location from its velocity.
+     * Locations wrap around the edges of the whole universe.
+     * @param particles store holding the particle
+     * @param index index of the particle in its store
+     * @param time time to move the particle for
+     * @param width width of the whole universe
+     * @param height height of the whole universe
      */
-    public void updateLocationAndVelocity(double timeStep, int gridSize, int size) {
-        double accelerationX = forceX / mass;
-        double accelerationY = forceY / mass;
-        double bigGridSize = gridSize * (Math.sqrt(size));
-        locX = (1/2) * accelerationX * Math.pow(timeStep, 2) + velocityX * timeStep + locX;
-        locY = (1/2) * accelerationY * Math.pow(timeStep, 2) + velocityY * timeStep + locY;
-        locX = locX % bigGridSize;
-        locY = locY % bigGridSize;
+    public static void drift(ParticleStore particles, int index, double time, double width, double height) {
+        double locX = (particles.locX[index] + particles.velocityX[index] * time) % width;
+        double locY = (particles.locY[index] + particles.velocityY[index] * time) % height;
         if (locX < 0) {
-            locX += bigGridSize;
+            locX += width;
         }
         if (locY < 0) {
-            locY += bigGridSize;
+            locY += height;
         }
-        velocityX = velocityX + accelerationX * timeStep;
-        velocityY = velocityY + accelerationY * timeStep;
+        particles.locX[index] = locX;
+        particles.locY[index] = locY;
     }
 
-    @Override
-    public String toString() {
-        String formatted = "";
-        formatted += "Mass: " + this.mass + "\n";
-        formatted += "Radius: " + this.radius + "\n";
-        formatted += "LocX: " + this.locX + "\n";
-        formatted += "LocY: " + this.locY + "\n";
-        formatted += "VelocityX: " + this.velocityX + "\n";
-        formatted += "VelocityY: " + this.velocityY + "\n";
-        return formatted;
+    /**
+     * Chooses the block time-step level of a particle from its precomputed forceX and forceY values.
+     * A particle at level k steps timeStep / 2^k at a time, and the level is the smallest one at which its current
+     * acceleration moves it no further than the accuracy within a step, which is a * step^2 / 2 <= accuracy.
+     * The forceX and forceY of a massless tracer are its acceleration.
+     * @param particles store holding the particle
+     * @param index index of the particle in its store
+     * @param timeStep longest step, the step of level 0
+     * @param accuracy largest distance the acceleration may move the particle within its step
+     * @param maxLevel finest level allowed
+     * @return level of the particle, between 0 and maxLevel
+     */
+    public static int chooseLevel(ParticleStore particles, int index, double timeStep, double accuracy,
+                                  int maxLevel) {
+        double mass = particles.mass[index];
+        double acceleration = Math.hypot(particles.forceX[index], particles.forceY[index]) / (mass == 0 ? 1 : mass);
+        double step = timeStep;
+        int level = 0;
+        while (level < maxLevel && acceleration * step * step > 2 * accuracy) {
+            step /= 2;
+            level++;
+        }
+        return level;
     }
 }
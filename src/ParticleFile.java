@@ -0,0 +1,220 @@
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Class writing and reading binary files of pre-generated particles to start a simulation from.
+ * The particles are sorted into a uniform grid of cells over the whole universe, and an index of the cells in the
+ * header lets every process memory-map only the rows of cells overlapping its universe, so the time to start does not
+ * grow with the number of particles of the other processes. All values are little endian:
+ *   int magic, int version, int cellsX, int cellsY, double width, double height, long count,
+ *   long cellStart[cellsX * cellsY + 1], the first particle of every cell, cells in row-major order,
+ *   count records of RECORD_BYTES bytes sorted by cell:
+ *     long id, double mass, double radius, double locX, double locY, double velocityX, double velocityY,
+ *     byte large, 7 bytes of padding
+ * Files are written from a text file of particles with
+ *   java ParticleFile particles.txt particles.bin width height [cells per side]
+ * where every line of the text file is: mass radius locX locY [velocityX velocityY [large]].
+ */
+public class ParticleFile {
+    static final int MAGIC = 0x50415254; // "PART"
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 40;
+    static final int RECORD_BYTES = 64;
+    static final long FIRST_ID = 1L << 62; // id of the first particle of a text file, above the ids of generated ones
+    private static final int MAX_MAP_RECORDS = (1 << 30) / RECORD_BYTES; // records mapped at once, at most 1 GiB
+
+    private ParticleFile() {
+    }
+
+    /**
+     * Adds the particles of a particle file that lie in the universe of a process
+     * @param fileName
+     * @param decomposition decomposition of the whole universe between the processes
+     * @param rank rank of the process
+     * @param particles store to add the particles to
+     * @return number of particles added
+     * @throws IOException if the file cannot be read or is for a universe of a different size
+     */
+    public static int read(String fileName, Decomposition decomposition, int rank, ParticleStore particles)
+            throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            if (header.getInt(0) != MAGIC) {
+                throw new IOException(fileName + " is not a particle file");
+            }
+            int version = header.getInt(4);
+            if (version != VERSION) {
+                throw new IOException("Unsupported particle file version " + version);
+            }
+            int cellsX = header.getInt(8);
+            int cellsY = header.getInt(12);
+            double width = header.getDouble(16);
+            double height = header.getDouble(24);
+            if (width != decomposition.getWidth() || height != decomposition.getHeight()) {
+                throw new IOException(fileName + " holds a " + width + " x " + height + " universe, not "
+                        + decomposition.getWidth() + " x " + decomposition.getHeight());
+            }
+            long indexBytes = 8L * (cellsX * cellsY + 1);
+            ByteBuffer index = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES, indexBytes)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            long recordsStart = HEADER_BYTES + indexBytes;
+
+            int row = decomposition.getRow(rank);
+            int column = decomposition.getColumn(rank);
+            double[] xCuts = decomposition.getXCuts();
+            double[] yCuts = decomposition.getYCuts();
+            int firstX = cellOf(xCuts[column], width, cellsX);
+            int lastX = cellOf(xCuts[column + 1], width, cellsX);
+            int firstY = cellOf(yCuts[row], height, cellsY);
+            int lastY = cellOf(yCuts[row + 1], height, cellsY);
+            int before = particles.count;
+            for (int y = firstY; y <= lastY; y++) {
+                // the cells of a row overlapping the universe are next to each other in the file
+                long first = index.getLong(8 * (y * cellsX + firstX));
+                long end = index.getLong(8 * (y * cellsX + lastX + 1));
+                for (long start = first; start < end; start += MAX_MAP_RECORDS) {
+                    int records = (int)Math.min(MAX_MAP_RECORDS, end - start);
+                    MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY,
+                            recordsStart + start * RECORD_BYTES, (long)records * RECORD_BYTES);
+                    mapped.order(ByteOrder.LITTLE_ENDIAN);
+                    addRecords(mapped, records, decomposition, rank, particles);
+                }
+            }
+            return particles.count - before;
+        }
+    }
+
+    /**
+     * Adds the records of a mapped range of a particle file that lie in the universe of a process
+     * @param records mapped records
+     * @param count number of records
+     * @param decomposition
+     * @param rank
+     * @param particles
+     */
+    private static void addRecords(ByteBuffer records, int count, Decomposition decomposition, int rank,
+                                   ParticleStore particles) {
+        for (int r = 0; r < count; r++) {
+            int offset = r * RECORD_BYTES;
+            double locX = records.getDouble(offset + 24);
+            double locY = records.getDouble(offset + 32);
+            if (!decomposition.contains(rank, locX, locY)) continue;
+            particles.add(records.getLong(offset), records.getDouble(offset + 16), records.getDouble(offset + 8),
+                    locX, locY, records.getDouble(offset + 40), records.getDouble(offset + 48), 0, 0,
+                    records.get(offset + 56) != 0);
+        }
+    }
+
+    /**
+     * Writes particles into a new particle file
+     * @param fileName
+     * @param particles particles of the whole universe, with locations within it
+     * @param width width of the whole universe
+     * @param height height of the whole universe
+     * @param cellsX number of cells of the index along the width
+     * @param cellsY number of cells of the index along the height
+     * @throws IOException
+     */
+    public static void write(String fileName, ParticleStore particles, double width, double height, int cellsX,
+                             int cellsY) throws IOException {
+        // sort the particles by cell, counting the particles of every cell first
+        int cells = cellsX * cellsY;
+        long[] cellStart = new long[cells + 1];
+        int[] cell = new int[particles.count];
+        for (int i = 0; i < particles.count; i++) {
+            cell[i] = cellOf(particles.locY[i], height, cellsY) * cellsX + cellOf(particles.locX[i], width, cellsX);
+            cellStart[cell[i] + 1]++;
+        }
+        for (int c = 0; c < cells; c++) {
+            cellStart[c + 1] += cellStart[c];
+        }
+        int[] order = new int[particles.count];
+        long[] next = cellStart.clone();
+        for (int i = 0; i < particles.count; i++) {
+            order[(int)next[cell[i]]++] = i;
+        }
+
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(MAGIC).putInt(VERSION).putInt(cellsX).putInt(cellsY).putDouble(width).putDouble(height)
+                    .putLong(particles.count);
+            for (long start : cellStart) {
+                if (buffer.remaining() < 8) flush(channel, buffer);
+                buffer.putLong(start);
+            }
+            for (int p : order) {
+                if (buffer.remaining() < RECORD_BYTES) flush(channel, buffer);
+                buffer.putLong(particles.id[p]).putDouble(particles.mass[p]).putDouble(particles.radius[p])
+                        .putDouble(particles.locX[p]).putDouble(particles.locY[p])
+                        .putDouble(particles.velocityX[p]).putDouble(particles.velocityY[p])
+                        .put((byte)(particles.large[p] ? 1 : 0)).put(new byte[7]);
+            }
+            flush(channel, buffer);
+        }
+    }
+
+    /**
+     * Writes out the contents of a buffer and clears it
+     * @param channel
+     * @param buffer
+     * @throws IOException
+     */
+    private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * @param location x or y coordinate within the universe
+     * @param size width or height of the universe
+     * @param cells number of cells along the width or height of the universe
+     * @return the cell column or row of the coordinate, locations on the far edge belong to the last cell
+     */
+    private static int cellOf(double location, double size, int cells) {
+        return Math.max(0, Math.min((int)(location / size * cells), cells - 1));
+    }
+
+    /**
+     * Converts a text file of particles into a particle file
+     * @param args particles.txt particles.bin width height [cells per side]
+     * @throws IOException
+     */
+    public static void main(String... args) throws IOException {
+        if (args.length < 4) {
+            System.out.println("Usage: java ParticleFile particles.txt particles.bin width height [cells per side]");
+            System.exit(1);
+        }
+        double width = Double.parseDouble(args[2]);
+        double height = Double.parseDouble(args[3]);
+        int cellsPerSide = args.length > 4 ? Integer.parseInt(args[4]) : 64;
+        ParticleStore particles = new ParticleStore();
+        try (BufferedReader reader = new BufferedReader(new FileReader(args[0]))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) continue;
+                String[] values = line.split("\\s+");
+                double velocityX = values.length > 4 ? Double.parseDouble(values[4]) : 0;
+                double velocityY = values.length > 5 ? Double.parseDouble(values[5]) : 0;
+                boolean large = values.length > 6 && Boolean.parseBoolean(values[6]);
+                particles.add(FIRST_ID + particles.count, Double.parseDouble(values[1]), Double.parseDouble(values[0]),
+                        Double.parseDouble(values[2]), Double.parseDouble(values[3]), velocityX, velocityY, 0, 0,
+                        large);
+            }
+        }
+        write(args[1], particles, width, height, cellsPerSide, cellsPerSide);
+        System.out.println("Wrote " + particles.count + " particles to " + args[1]);
+    }
+}
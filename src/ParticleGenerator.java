@@ -0,0 +1,185 @@
+import java.util.SplittableRandom;
+
+/**
+ * Class generating the small particles of a universe in parallel and reproducibly.
+ * Every particle draws its location from its own SplittableRandom, seeded from the seed of the spec file and the
+ * number of the particle, so the particles are the same on every run with the same seed no matter how many threads
+ * fill them in. Particles are placed with one of the distributions:
+ *   uniform   over the universe of the process, which is the uniform distribution over the whole universe
+ *   plummer   the projected Plummer profile, surface density (1 + r^2 / a^2)^-2 around the centre of the whole
+ *             universe, with the scale radius a
+ *   clustered Gaussian clusters of standard deviation scale around cluster centres spread uniformly over the whole
+ *             universe, clusters per process of them
+ * Uniform particles are numbered per process, and every process draws its own. The other distributions are a single
+ * model of the whole universe: the numberOfSmallParticles * processes particles are numbered from the seed alone,
+ * every process draws its share of the numbers, wherever they fall, and HaloExchange.scatter then hands each
+ * particle to the process owning it. So every process draws its own particles only, and the set of particles only
+ * depends on the total count.
+ * Locations falling outside the whole universe are drawn again, up to MAX_DRAWS times before the particle is placed
+ * uniformly.
+ */
+public class ParticleGenerator {
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+    private static final int MAX_DRAWS = 1000; // draws of a location before a particle is placed uniformly instead
+
+    private String distribution; // uniform, plummer or clustered
+    private long seed; // seed of the whole universe
+    private long rankSeed; // seed of the uniform particles of the current process
+    private double scale; // scale radius of plummer, standard deviation of the clusters of clustered
+    private int rank; // rank of the current process
+    private double width, height; // size of the whole universe
+    private double x0, y0, domainWidth, domainHeight; // bounds of the universe of the process
+    private double[] clusterX, clusterY; // cluster centres of clustered
+
+    /**
+     * Constructor for ParticleGenerator objects
+     * @param specs InitialSpec object created from parsing the initialspec.txt file
+     * @param decomposition division of the whole universe between the processes
+     * @param rank rank of the current process
+     * @throws IllegalArgumentException if the distribution is unknown
+     */
+    public ParticleGenerator(InitialSpec specs, Decomposition decomposition, int rank) {
+        this.distribution = specs.distribution;
+        this.seed = mix(specs.seed);
+        this.rankSeed = mix(seed ^ rank);
+        this.rank = rank;
+        this.width = decomposition.getWidth();
+        this.height = decomposition.getHeight();
+        int column = decomposition.getColumn(rank);
+        int row = decomposition.getRow(rank);
+        this.x0 = decomposition.getXCuts()[column];
+        this.y0 = decomposition.getYCuts()[row];
+        this.domainWidth = decomposition.getXCuts()[column + 1] - x0;
+        this.domainHeight = decomposition.getYCuts()[row + 1] - y0;
+        this.scale = specs.distributionScale > 0 ? specs.distributionScale : Math.min(width, height) / 10;
+        if (distribution.equals("clustered")) {
+            SplittableRandom random = new SplittableRandom(mix(seed ^ -1));
+            int clusters = Math.max(specs.clusters, 1) * decomposition.getColumns() * decomposition.getRows();
+            this.clusterX = new double[clusters];
+            this.clusterY = new double[clusters];
+            for (int c = 0; c < clusters; c++) {
+                clusterX[c] = random.nextDouble() * width;
+                clusterY[c] = random.nextDouble() * height;
+            }
+        } else if (!distribution.equals("uniform") && !distribution.equals("plummer")) {
+            throw new IllegalArgumentException("Unknown distribution " + distribution);
+        }
+    }
+
+    /**
+     * Appends small particles at rest to a store, in parallel over the threads of the work pool
+     * @param particles store to add the particles to
+     * @param count number of particles per process
+     * @param firstId id of the first particle, the others follow it
+     * @param radius
+     * @param mass
+     * @param workPool threads filling in the particles
+     */
+    public void generate(ParticleStore particles, int count, long firstId, double radius, double mass,
+                         WorkPool workPool) {
+        if (distribution.equals("uniform")) {
+            int first = particles.extend(count);
+            workPool.forEach(count, i -> {
+                SplittableRandom random = new SplittableRandom(mix(rankSeed + GOLDEN_GAMMA * (i + 1)));
+                particles.locX[first + i] = x0 + random.nextDouble() * domainWidth;
+                particles.locY[first + i] = y0 + random.nextDouble() * domainHeight;
+                fill(particles, first + i, firstId + i, radius, mass);
+            });
+            return;
+        }
+
+        long firstDraw = (long)rank * count; // number of the first particle drawn by the current process
+        int first = particles.extend(count);
+        workPool.forEach(count, i -> {
+            double[] location = new double[2];
+            draw(firstDraw + i, location);
+            particles.locX[first + i] = location[0];
+            particles.locY[first + i] = location[1];
+            fill(particles, first + i, firstId + i, radius, mass);
+        });
+    }
+
+    /**
+     * @return true if the generated particles are drawn over the whole universe, so that they must be scattered to
+     *         the processes owning them
+     */
+    public boolean isScattered() {
+        return !distribution.equals("uniform");
+    }
+
+    /**
+     * Sets every column of a particle but its location
+     * @param particles
+     * @param index
+     * @param id
+     * @param radius
+     * @param mass
+     */
+    private static void fill(ParticleStore particles, int index, long id, double radius, double mass) {
+        particles.id[index] = id;
+        particles.radius[index] = radius;
+        particles.mass[index] = mass;
+        particles.velocityX[index] = 0;
+        particles.velocityY[index] = 0;
+        particles.forceX[index] = 0;
+        particles.forceY[index] = 0;
+        particles.large[index] = false;
+        particles.level[index] = -1;
+    }
+
+    /**
+     * Draws the location of a particle of the whole universe from the distribution until it falls in the whole
+     * universe
+     * @param n number of the particle among the particles of every process
+     * @param location array to write the x and y coordinates to
+     */
+    private void draw(long n, double[] location) {
+        SplittableRandom random = new SplittableRandom(mix(seed + GOLDEN_GAMMA * (n + 1)));
+        // drawn first, so it is also the location of a particle the distribution keeps placing outside the universe
+        location[0] = random.nextDouble() * width;
+        location[1] = random.nextDouble() * height;
+        double locX = 0, locY = 0;
+        for (int draw = 0; draw < MAX_DRAWS; draw++) {
+            switch (distribution) {
+                case "plummer":
+                    // inverse of the cumulative mass r^2 / (r^2 + a^2) of the projected profile
+                    double u = random.nextDouble();
+                    double r = scale * Math.sqrt(u / (1 - u));
+                    double angle = 2 * Math.PI * random.nextDouble();
+                    locX = width / 2 + r * Math.cos(angle);
+                    locY = height / 2 + r * Math.sin(angle);
+                    break;
+                case "clustered":
+                    int c = random.nextInt(clusterX.length);
+                    locX = clusterX[c] + scale * gaussian(random);
+                    locY = clusterY[c] + scale * gaussian(random);
+                    break;
+            }
+            if (locX >= 0 && locX < width && locY >= 0 && locY < height) {
+                location[0] = locX;
+                location[1] = locY;
+                return;
+            }
+        }
+    }
+
+    /**
+     * @param random
+     * @return normally distributed value with mean 0 and standard deviation 1, by the Box-Muller transform
+     */
+    private static double gaussian(SplittableRandom random) {
+        double u = 1 - random.nextDouble();
+        return Math.sqrt(-2 * Math.log(u)) * Math.cos(2 * Math.PI * random.nextDouble());
+    }
+
+    /**
+     * Scrambles the bits of a seed, so that nearby seeds give unrelated streams
+     * @param z
+     * @return the mixed value
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
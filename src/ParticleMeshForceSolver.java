@@ -0,0 +1,486 @@
+import mpi.MPIException;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * ForceSolver calculating the forces with a particle-mesh method over the global periodic grid.
+ * At every iteration each process deposits the mass of its own particles onto a meshSize x meshSize mesh covering
+ * the whole periodic universe with cloud-in-cell weights (the mesh cells are rectangular if the universe is).
+ * The Poisson equation is solved in Fourier space with a two dimensional FFT that is distributed over the processes:
+ * each process owns a slab of mesh rows and a slab of mesh columns. The mesh rows touched by the particles of a
+ * process are summed into the slabs of their owners, each process transforms its rows, the slabs are transposed
+ * between processes to transform the columns and back, and the rows of the acceleration field touched by the
+ * particles of a process are sent back to it. The field is interpolated onto the particles with the same
+ * cloud-in-cell weights.
+ * The cost of an iteration is O(N + M log M) for N particles and M mesh cells, of which a process sends the M / P
+ * cells of its slabs and the mesh rows covering its own universe, never the whole mesh. The forces do not depend on
+ * the horizon because every particle in the universe contributes through the mesh. Particles received from other
+ * universes are not used, since they are already deposited by their own process.
+ */
+public class ParticleMeshForceSolver implements ForceSolver {
+    private static final double GRAVITY = 3; // same constant as the pairwise force in Particle
+    private static final int MASS_TAG = 4; // tag of the mesh rows summed into their slab, after those of HaloExchange
+    private static final int SPECTRUM_TAG = 5; // tag of the row slabs transposed into column slabs
+    private static final int FIELD_TAG = 6; // tag of the column slabs transposed back into row slabs
+    private static final int ACCELERATION_TAG = 7; // tag of the acceleration rows sent back to the processes
+
+    private int meshSize; // number of mesh cells along each side of the universe
+    private double width, height; // size of the whole universe
+    private double cellWidth, cellHeight; // size of a mesh cell
+    private Communicator communicator; // communication with the other processes
+    private int rank; // rank of the process
+    private int size; // number of processes
+    private FFT fft;
+    private int[] sliceStart, sliceCount; // first mesh row (and column) of every process and their number
+    private int[] slabOwner; // rank of the process owning every mesh row (and column)
+
+    private double[] range; // first and last mesh row touched by the particles of the current universe, unwrapped
+    private double[] ranges; // ranges of every process, gathered
+    private int[] rangeCounts, rangeDispls; // layout of the ranges for allGatherv
+    private double[] mass; // mass deposited by the particles of the current universe, on the rows of its range
+    private double[] totalMass; // mass deposited by the particles of every universe, on the rows of the row slab
+    private double[] spectrum; // complex mesh, row-major, during the forward transform
+    private double[] fieldX, fieldY; // complex acceleration fields, column-major, during the inverse transform
+    private double[] accelerationX, accelerationY; // real acceleration fields, row-major, on the rows of the range
+    private ByteBuffer[][] sendBuffers; // buffer of every exchange (by tag) to every process
+    private Message[] receiveMessages, sendMessages; // handles of the messages of an exchange with every process
+    private int[] receiveCounts; // number of values received from every process in an exchange
+
+    /**
+     * Constructor for ParticleMeshForceSolver objects
+     * @param meshSize number of mesh cells along each side of the universe, must be a power of two
+     * @param width width of the whole universe
+     * @param height height of the whole universe
+     * @param communicator communication with the other processes
+     */
+    public ParticleMeshForceSolver(int meshSize, double width, double height, Communicator communicator) {
+        this.size = communicator.getSize();
+        this.meshSize = meshSize;
+        this.width = width;
+        this.height = height;
+        this.cellWidth = width / meshSize;
+        this.cellHeight = height / meshSize;
+        this.communicator = communicator;
+        this.rank = communicator.getRank();
+        this.fft = new FFT(meshSize);
+        this.sliceStart = new int[size];
+        this.sliceCount = new int[size];
+        this.slabOwner = new int[meshSize];
+        this.rangeCounts = new int[size];
+        this.rangeDispls = new int[size];
+        for (int r = 0; r < size; r++) {
+            sliceStart[r] = (int)((long)r * meshSize / size);
+            sliceCount[r] = (int)((long)(r + 1) * meshSize / size) - sliceStart[r];
+            Arrays.fill(slabOwner, sliceStart[r], sliceStart[r] + sliceCount[r], r);
+            rangeCounts[r] = 2;
+            rangeDispls[r] = 2 * r;
+        }
+        int cells = meshSize * meshSize;
+        this.range = new double[2];
+        this.ranges = new double[2 * size];
+        this.mass = new double[cells];
+        this.totalMass = new double[cells];
+        this.spectrum = new double[2 * cells];
+        this.fieldX = new double[2 * cells];
+        this.fieldY = new double[2 * cells];
+        this.accelerationX = new double[cells];
+        this.accelerationY = new double[cells];
+        this.sendBuffers = new ByteBuffer[ACCELERATION_TAG - MASS_TAG + 1][size];
+        this.receiveMessages = new Message[size];
+        this.sendMessages = new Message[size];
+        this.receiveCounts = new int[size];
+        for (int r = 0; r < size; r++) {
+            receiveMessages[r] = new Message(null);
+            sendMessages[r] = new Message(null);
+        }
+    }
+
+    /**
+     * @param width width of the whole universe
+     * @param height height of the whole universe
+     * @return the smallest power of two mesh size with cells no larger than one unit of length
+     */
+    public static int defaultMeshSize(double width, double height) {
+        int meshSize = 1;
+        while (meshSize < Math.max(width, height)) {
+            meshSize <<= 1;
+        }
+        return meshSize;
+    }
+
+    @Override
+    public void prepare(ParticleStore particles, List<ParticleStore> halo) throws MPIException {
+        depositMass(particles);
+        communicator.allGatherv(range, 2, ranges, rangeCounts, rangeDispls);
+        reduceMass();
+        transformRows();
+        solveColumns();
+        transformBack();
+    }
+
+    @Override
+    public void computeForce(ParticleStore particles, int index) {
+        double u = particles.locX[index] / cellWidth - 0.5;
+        double v = particles.locY[index] / cellHeight - 0.5;
+        int x0 = (int)Math.floor(u);
+        int y0 = (int)Math.floor(v);
+        double fx = u - x0;
+        double fy = v - y0;
+        int x1 = wrap(x0 + 1);
+        int y1 = wrap(y0 + 1);
+        x0 = wrap(x0);
+        y0 = wrap(y0);
+        double w00 = (1 - fx) * (1 - fy), w10 = fx * (1 - fy), w01 = (1 - fx) * fy, w11 = fx * fy;
+        double ax = w00 * accelerationX[y0 * meshSize + x0] + w10 * accelerationX[y0 * meshSize + x1]
+                + w01 * accelerationX[y1 * meshSize + x0] + w11 * accelerationX[y1 * meshSize + x1];
+        double ay = w00 * accelerationY[y0 * meshSize + x0] + w10 * accelerationY[y0 * meshSize + x1]
+                + w01 * accelerationY[y1 * meshSize + x0] + w11 * accelerationY[y1 * meshSize + x1];
+        particles.forceX[index] = particles.mass[index] * ax;
+        particles.forceY[index] = particles.mass[index] * ay;
+    }
+
+    /**
+     * Every process deposits its own particles onto the shared mesh, so no ghosts are needed. Particles entering the
+     * current universe arrive as migrants before the mesh is prepared.
+     */
+    @Override
+    public double getInteractionRange() {
+        return 0;
+    }
+
+    /**
+     * Deposits the mass of the particles of the current universe onto the mesh with cloud-in-cell weights, and
+     * records the range of mesh rows they touch
+     * @param particles
+     */
+    private void depositMass(ParticleStore particles) {
+        int first = Integer.MAX_VALUE, last = Integer.MIN_VALUE;
+        for (int i = 0; i < particles.count; i++) {
+            int y0 = (int)Math.floor(particles.locY[i] / cellHeight - 0.5);
+            first = Math.min(first, y0);
+            last = Math.max(last, y0 + 1);
+        }
+        if (particles.count == 0) {
+            first = 0;
+            last = -1;
+        } else if (last - first >= meshSize - 1) {
+            first = 0;
+            last = meshSize - 1;
+        }
+        range[0] = first;
+        range[1] = last;
+        for (int r = first; r <= last; r++) {
+            int y = Math.floorMod(r, meshSize);
+            Arrays.fill(mass, y * meshSize, (y + 1) * meshSize, 0);
+        }
+        for (int i = 0; i < particles.count; i++) {
+            double u = particles.locX[i] / cellWidth - 0.5;
+            double v = particles.locY[i] / cellHeight - 0.5;
+            int x0 = (int)Math.floor(u);
+            int y0 = (int)Math.floor(v);
+            double fx = u - x0;
+            double fy = v - y0;
+            int x1 = wrap(x0 + 1);
+            int y1 = wrap(y0 + 1);
+            x0 = wrap(x0);
+            y0 = wrap(y0);
+            double m = particles.mass[i];
+            mass[y0 * meshSize + x0] += m * (1 - fx) * (1 - fy);
+            mass[y0 * meshSize + x1] += m * fx * (1 - fy);
+            mass[y1 * meshSize + x0] += m * (1 - fx) * fy;
+            mass[y1 * meshSize + x1] += m * fx * fy;
+        }
+    }
+
+    /**
+     * Sums the mesh rows deposited by every process into the row slabs of their owners. Each process only sends the
+     * rows of its range, so the traffic follows the size of the universes rather than the size of the mesh.
+     * @throws MPIException
+     */
+    private void reduceMass() throws MPIException {
+        for (int other = 0; other < size; other++) {
+            receiveCounts[other] = other == rank ? 0 : rowsInSlab(other, rank) * meshSize;
+        }
+        postReceives(MASS_TAG, receiveCounts);
+        for (int other = 0; other < size; other++) {
+            int rows = other == rank ? 0 : rowsInSlab(rank, other);
+            if (rows == 0) continue;
+            ByteBuffer buffer = sendBuffer(MASS_TAG, other, rows * meshSize);
+            for (int r = (int)range[0]; r <= (int)range[1]; r++) {
+                int y = Math.floorMod(r, meshSize);
+                if (slabOwner[y] != other) continue;
+                for (int x = 0; x < meshSize; x++) {
+                    buffer.putDouble(mass[y * meshSize + x]);
+                }
+            }
+            send(buffer, other, MASS_TAG);
+        }
+        Arrays.fill(totalMass, sliceStart[rank] * meshSize, (sliceStart[rank] + sliceCount[rank]) * meshSize, 0);
+        for (int r = (int)range[0]; r <= (int)range[1]; r++) {
+            int y = Math.floorMod(r, meshSize);
+            if (slabOwner[y] != rank) continue;
+            for (int x = 0; x < meshSize; x++) {
+                totalMass[y * meshSize + x] += mass[y * meshSize + x];
+            }
+        }
+        communicator.waitAll(receiveMessages);
+        for (int other = 0; other < size; other++) {
+            if (receiveCounts[other] == 0) continue;
+            ByteBuffer buffer = receiveMessages[other].buffer;
+            int offset = 0;
+            for (int r = (int)ranges[2 * other]; r <= (int)ranges[2 * other + 1]; r++) {
+                int y = Math.floorMod(r, meshSize);
+                if (slabOwner[y] != rank) continue;
+                for (int x = 0; x < meshSize; x++, offset += 8) {
+                    totalMass[y * meshSize + x] += buffer.getDouble(offset);
+                }
+            }
+        }
+        communicator.waitAll(sendMessages);
+    }
+
+    /**
+     * Forward transforms the mesh rows of the current process and transposes the row slabs into column slabs, so
+     * that every process holds its columns of the spectrum
+     * @throws MPIException
+     */
+    private void transformRows() throws MPIException {
+        int start = sliceStart[rank];
+        int end = start + sliceCount[rank];
+        for (int y = start; y < end; y++) {
+            for (int x = 0; x < meshSize; x++) {
+                spectrum[2 * (y * meshSize + x)] = totalMass[y * meshSize + x];
+                spectrum[2 * (y * meshSize + x) + 1] = 0;
+            }
+            fft.transform(spectrum, y * meshSize, 1, false);
+        }
+        for (int other = 0; other < size; other++) {
+            receiveCounts[other] = other == rank ? 0 : 2 * sliceCount[other] * sliceCount[rank];
+        }
+        postReceives(SPECTRUM_TAG, receiveCounts);
+        for (int other = 0; other < size; other++) {
+            int values = other == rank ? 0 : 2 * sliceCount[rank] * sliceCount[other];
+            if (values == 0) continue;
+            ByteBuffer buffer = sendBuffer(SPECTRUM_TAG, other, values);
+            for (int y = start; y < end; y++) {
+                for (int x = sliceStart[other]; x < sliceStart[other] + sliceCount[other]; x++) {
+                    buffer.putDouble(spectrum[2 * (y * meshSize + x)]);
+                    buffer.putDouble(spectrum[2 * (y * meshSize + x) + 1]);
+                }
+            }
+            send(buffer, other, SPECTRUM_TAG);
+        }
+        communicator.waitAll(receiveMessages);
+        for (int other = 0; other < size; other++) {
+            if (receiveCounts[other] == 0) continue;
+            ByteBuffer buffer = receiveMessages[other].buffer;
+            int offset = 0;
+            for (int y = sliceStart[other]; y < sliceStart[other] + sliceCount[other]; y++) {
+                for (int x = start; x < end; x++, offset += 16) {
+                    spectrum[2 * (y * meshSize + x)] = buffer.getDouble(offset);
+                    spectrum[2 * (y * meshSize + x) + 1] = buffer.getDouble(offset + 8);
+                }
+            }
+        }
+        communicator.waitAll(sendMessages);
+    }
+
+    /**
+     * Forward transforms the mesh columns of the current process, applies the Green's function of the pairwise force
+     * and its gradient, inverse transforms the columns and transposes the column slabs back into row slabs.
+     * The pairwise force falls off as 1/r^2, so its potential is -G/r whose two dimensional Fourier transform is
+     * -2 pi G/k.
+     */
+    private void solveColumns() throws MPIException {
+        int start = sliceStart[rank];
+        int end = start + sliceCount[rank];
+        for (int x = start; x < end; x++) {
+            fft.transform(spectrum, x, meshSize, false);
+            double kx = wavenumber(x, width);
+            for (int y = 0; y < meshSize; y++) {
+                double ky = wavenumber(y, height);
+                double k = Math.sqrt(kx * kx + ky * ky);
+                int cell = 2 * (y * meshSize + x);
+                int transposed = 2 * (x * meshSize + y);
+                if (k == 0) {
+                    fieldX[transposed] = fieldX[transposed + 1] = 0;
+                    fieldY[transposed] = fieldY[transposed + 1] = 0;
+                    continue;
+                }
+                double green = -2 * Math.PI * GRAVITY / k;
+                double potentialRe = green * spectrum[cell];
+                double potentialIm = green * spectrum[cell + 1];
+                // acceleration = -i k potential
+                fieldX[transposed] = kx * potentialIm;
+                fieldX[transposed + 1] = -kx * potentialRe;
+                fieldY[transposed] = ky * potentialIm;
+                fieldY[transposed + 1] = -ky * potentialRe;
+            }
+            fft.transform(fieldX, x * meshSize, 1, true);
+            fft.transform(fieldY, x * meshSize, 1, true);
+        }
+        for (int other = 0; other < size; other++) {
+            receiveCounts[other] = other == rank ? 0 : 4 * sliceCount[other] * sliceCount[rank];
+        }
+        postReceives(FIELD_TAG, receiveCounts);
+        for (int other = 0; other < size; other++) {
+            int values = other == rank ? 0 : 4 * sliceCount[rank] * sliceCount[other];
+            if (values == 0) continue;
+            ByteBuffer buffer = sendBuffer(FIELD_TAG, other, values);
+            for (int x = start; x < end; x++) {
+                for (int y = sliceStart[other]; y < sliceStart[other] + sliceCount[other]; y++) {
+                    int transposed = 2 * (x * meshSize + y);
+                    buffer.putDouble(fieldX[transposed]);
+                    buffer.putDouble(fieldX[transposed + 1]);
+                    buffer.putDouble(fieldY[transposed]);
+                    buffer.putDouble(fieldY[transposed + 1]);
+                }
+            }
+            send(buffer, other, FIELD_TAG);
+        }
+        communicator.waitAll(receiveMessages);
+        for (int other = 0; other < size; other++) {
+            if (receiveCounts[other] == 0) continue;
+            ByteBuffer buffer = receiveMessages[other].buffer;
+            int offset = 0;
+            for (int x = sliceStart[other]; x < sliceStart[other] + sliceCount[other]; x++) {
+                for (int y = start; y < end; y++, offset += 32) {
+                    int transposed = 2 * (x * meshSize + y);
+                    fieldX[transposed] = buffer.getDouble(offset);
+                    fieldX[transposed + 1] = buffer.getDouble(offset + 8);
+                    fieldY[transposed] = buffer.getDouble(offset + 16);
+                    fieldY[transposed + 1] = buffer.getDouble(offset + 24);
+                }
+            }
+        }
+        communicator.waitAll(sendMessages);
+    }
+
+    /**
+     * Inverse transforms the mesh rows of the current process into real accelerations and sends every process the
+     * rows of its range
+     * @throws MPIException
+     */
+    private void transformBack() throws MPIException {
+        int start = sliceStart[rank];
+        int end = start + sliceCount[rank];
+        double normalization = 1 / (width * height);
+        for (int y = start; y < end; y++) {
+            fft.transform(fieldX, y, meshSize, true);
+            fft.transform(fieldY, y, meshSize, true);
+            for (int x = 0; x < meshSize; x++) {
+                accelerationX[y * meshSize + x] = fieldX[2 * (x * meshSize + y)] * normalization;
+                accelerationY[y * meshSize + x] = fieldY[2 * (x * meshSize + y)] * normalization;
+            }
+        }
+        for (int other = 0; other < size; other++) {
+            receiveCounts[other] = other == rank ? 0 : 2 * rowsInSlab(rank, other) * meshSize;
+        }
+        postReceives(ACCELERATION_TAG, receiveCounts);
+        for (int other = 0; other < size; other++) {
+            int rows = other == rank ? 0 : rowsInSlab(other, rank);
+            if (rows == 0) continue;
+            ByteBuffer buffer = sendBuffer(ACCELERATION_TAG, other, 2 * rows * meshSize);
+            for (int r = (int)ranges[2 * other]; r <= (int)ranges[2 * other + 1]; r++) {
+                int y = Math.floorMod(r, meshSize);
+                if (slabOwner[y] != rank) continue;
+                for (int x = 0; x < meshSize; x++) {
+                    buffer.putDouble(accelerationX[y * meshSize + x]);
+                    buffer.putDouble(accelerationY[y * meshSize + x]);
+                }
+            }
+            send(buffer, other, ACCELERATION_TAG);
+        }
+        communicator.waitAll(receiveMessages);
+        for (int other = 0; other < size; other++) {
+            if (receiveCounts[other] == 0) continue;
+            ByteBuffer buffer = receiveMessages[other].buffer;
+            int offset = 0;
+            for (int r = (int)range[0]; r <= (int)range[1]; r++) {
+                int y = Math.floorMod(r, meshSize);
+                if (slabOwner[y] != other) continue;
+                for (int x = 0; x < meshSize; x++, offset += 16) {
+                    accelerationX[y * meshSize + x] = buffer.getDouble(offset);
+                    accelerationY[y * meshSize + x] = buffer.getDouble(offset + 8);
+                }
+            }
+        }
+        communicator.waitAll(sendMessages);
+    }
+
+    /**
+     * @param process rank of a process
+     * @param owner rank of the process owning a row slab
+     * @return number of mesh rows in the range of the process that lie in the row slab of the owner
+     */
+    private int rowsInSlab(int process, int owner) {
+        int rows = 0;
+        for (int r = (int)ranges[2 * process]; r <= (int)ranges[2 * process + 1]; r++) {
+            if (slabOwner[Math.floorMod(r, meshSize)] == owner) rows++;
+        }
+        return rows;
+    }
+
+    /**
+     * Posts the receives of an exchange from every other process sending a non-empty message
+     * @param tag tag of the exchange
+     * @param counts number of values received from every process
+     * @throws MPIException
+     */
+    private void postReceives(int tag, int[] counts) throws MPIException {
+        for (int other = 0; other < size; other++) {
+            if (counts[other] > 0) {
+                communicator.iRecv(receiveMessages[other], 8 * counts[other], other, tag);
+            }
+        }
+    }
+
+    /**
+     * Each exchange has its own buffers, and the ranges are gathered by every process at the start of prepare, so a
+     * buffer is only written again once its receiver has decoded it.
+     * @param tag tag of the exchange
+     * @param other rank of the receiving process
+     * @param count number of values to send
+     * @return empty buffer to encode the values into
+     */
+    private ByteBuffer sendBuffer(int tag, int other, int count) {
+        ByteBuffer buffer = HaloCodec.ensureCapacity(sendBuffers[tag - MASS_TAG][other], 8 * count);
+        sendBuffers[tag - MASS_TAG][other] = buffer;
+        return buffer;
+    }
+
+    /**
+     * Starts sending an encoded buffer from position 0 to its current position
+     * @param buffer encoded values
+     * @param other rank of the receiving process
+     * @param tag tag of the exchange
+     * @throws MPIException
+     */
+    private void send(ByteBuffer buffer, int other, int tag) throws MPIException {
+        buffer.flip();
+        communicator.iSend(sendMessages[other], buffer, other, tag);
+    }
+
+    /**
+     * @param n index of a mesh row or column
+     * @param length size of the universe along the mesh row or column
+     * @return wavenumber of the index, zero at the Nyquist frequency so that the gradient stays real
+     */
+    private double wavenumber(int n, double length) {
+        if (2 * n == meshSize) return 0;
+        int signed = 2 * n < meshSize ? n : n - meshSize;
+        return 2 * Math.PI * signed / length;
+    }
+
+    /**
+     * @param cell mesh index that may lie one cell outside the mesh
+     * @return the periodic mesh index
+     */
+    private int wrap(int cell) {
+        if (cell < 0) return cell + meshSize;
+        if (cell >= meshSize) return cell - meshSize;
+        return cell;
+    }
+}
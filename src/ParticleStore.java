@@ -0,0 +1,195 @@
+/**
+ * Structure-of-arrays container for particles.
+ * Every particle attribute lives in its own primitive column, and a particle is identified by its index into
+ * the columns. Small and large particles share the same store and are told apart by the large column.
+ * Every particle also carries an id that stays the same when it moves between stores or processes, so that it can be
+ * followed through the snapshots of a run.
+ * The columns only ever grow, so a store that is cleared and refilled every iteration does not allocate once it
+ * has reached its working size.
+ */
+public class ParticleStore {
+    private static final int DEFAULT_CAPACITY = 16;
+
+    long[] id; // id of every particle, unique over the whole universe
+    double[] mass, radius, locX, locY, velocityX, velocityY, forceX, forceY; // particle columns
+    boolean[] large; // true for large (planet) particles, false for small (gas) particles
+    byte[] level; // block time-step level, the particle steps timeStep / 2^level at a time, -1 before its first step
+    int count; // number of particles currently held, columns are valid from 0 to count - 1
+
+    /**
+     * Constructor for an empty ParticleStore with a default capacity
+     */
+    public ParticleStore() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Constructor for an empty ParticleStore
+     * @param capacity Number of particles the store can hold before its columns need to grow
+     */
+    public ParticleStore(int capacity) {
+        allocate(Math.max(capacity, 1));
+        this.count = 0;
+    }
+
+    /**
+     * Appends a particle to the end of the store.
+     * @param id
+     * @param radius
+     * @param mass
+     * @param locX
+     * @param locY
+     * @param velocityX
+     * @param velocityY
+     * @param forceX
+     * @param forceY
+     * @param large true if the particle is a large particle
+     * @return index of the added particle
+     */
+    public int add(long id, double radius, double mass, double locX, double locY,
+                   double velocityX, double velocityY, double forceX, double forceY, boolean large) {
+        ensureCapacity(count + 1);
+        int index = count++;
+        this.id[index] = id;
+        this.radius[index] = radius;
+        this.mass[index] = mass;
+        this.locX[index] = locX;
+        this.locY[index] = locY;
+        this.velocityX[index] = velocityX;
+        this.velocityY[index] = velocityY;
+        this.forceX[index] = forceX;
+        this.forceY[index] = forceY;
+        this.large[index] = large;
+        this.level[index] = -1;
+        return index;
+    }
+
+    /**
+     * Appends a number of particles whose columns are left for the caller to fill, so that they can be filled in
+     * parallel
+     * @param added number of particles to append
+     * @return index of the first appended particle
+     */
+    public int extend(int added) {
+        ensureCapacity(count + added);
+        int first = count;
+        count += added;
+        return first;
+    }
+
+    /**
+     * Appends a copy of a particle held in another store.
+     * @param other store holding the particle to copy
+     * @param index index of the particle in the other store
+     * @return index of the added particle
+     */
+    public int addFrom(ParticleStore other, int index) {
+        int added = add(other.id[index], other.radius[index], other.mass[index], other.locX[index], other.locY[index],
+                other.velocityX[index], other.velocityY[index], other.forceX[index], other.forceY[index],
+                other.large[index]);
+        this.level[added] = other.level[index];
+        return added;
+    }
+
+    /**
+     * Replaces the contents of this store with the contents of another store, reusing the existing columns
+     * @param other store to copy
+     */
+    public void copyFrom(ParticleStore other) {
+        ensureCapacity(other.count);
+        System.arraycopy(other.id, 0, id, 0, other.count);
+        System.arraycopy(other.radius, 0, radius, 0, other.count);
+        System.arraycopy(other.mass, 0, mass, 0, other.count);
+        System.arraycopy(other.locX, 0, locX, 0, other.count);
+        System.arraycopy(other.locY, 0, locY, 0, other.count);
+        System.arraycopy(other.velocityX, 0, velocityX, 0, other.count);
+        System.arraycopy(other.velocityY, 0, velocityY, 0, other.count);
+        System.arraycopy(other.forceX, 0, forceX, 0, other.count);
+        System.arraycopy(other.forceY, 0, forceY, 0, other.count);
+        System.arraycopy(other.large, 0, large, 0, other.count);
+        System.arraycopy(other.level, 0, level, 0, other.count);
+        this.count = other.count;
+    }
+
+    /**
+     * Removes a particle by moving the last particle of the store into its slot.
+     * The order of the remaining particles is not preserved.
+     * @param index index of the particle to remove
+     */
+    public void remove(int index) {
+        int last = --count;
+        if (index != last) {
+            move(last, index);
+        }
+    }
+
+    /**
+     * Copies every column of the particle at index from to index to
+     * @param from
+     * @param to
+     */
+    void move(int from, int to) {
+        id[to] = id[from];
+        radius[to] = radius[from];
+        mass[to] = mass[from];
+        locX[to] = locX[from];
+        locY[to] = locY[from];
+        velocityX[to] = velocityX[from];
+        velocityY[to] = velocityY[from];
+        forceX[to] = forceX[from];
+        forceY[to] = forceY[from];
+        large[to] = large[from];
+        level[to] = level[from];
+    }
+
+    /**
+     * Empties the store without releasing its columns
+     */
+    public void clear() {
+        this.count = 0;
+    }
+
+    /**
+     * Grows the columns so that at least the given number of particles fit in the store
+     * @param capacity
+     */
+    public void ensureCapacity(int capacity) {
+        if (capacity <= mass.length) return;
+        int newCapacity = Math.max(capacity, mass.length * 2);
+        long[] oldId = id;
+        double[] oldMass = mass, oldRadius = radius, oldLocX = locX, oldLocY = locY;
+        double[] oldVelocityX = velocityX, oldVelocityY = velocityY, oldForceX = forceX, oldForceY = forceY;
+        boolean[] oldLarge = large;
+        byte[] oldLevel = level;
+        allocate(newCapacity);
+        System.arraycopy(oldId, 0, id, 0, count);
+        System.arraycopy(oldMass, 0, mass, 0, count);
+        System.arraycopy(oldRadius, 0, radius, 0, count);
+        System.arraycopy(oldLocX, 0, locX, 0, count);
+        System.arraycopy(oldLocY, 0, locY, 0, count);
+        System.arraycopy(oldVelocityX, 0, velocityX, 0, count);
+        System.arraycopy(oldVelocityY, 0, velocityY, 0, count);
+        System.arraycopy(oldForceX, 0, forceX, 0, count);
+        System.arraycopy(oldForceY, 0, forceY, 0, count);
+        System.arraycopy(oldLarge, 0, large, 0, count);
+        System.arraycopy(oldLevel, 0, level, 0, count);
+    }
+
+    /**
+     * Allocates fresh columns of the given capacity
+     * @param capacity
+     */
+    private void allocate(int capacity) {
+        this.id = new long[capacity];
+        this.mass = new double[capacity];
+        this.radius = new double[capacity];
+        this.locX = new double[capacity];
+        this.locY = new double[capacity];
+        this.velocityX = new double[capacity];
+        this.velocityY = new double[capacity];
+        this.forceX = new double[capacity];
+        this.forceY = new double[capacity];
+        this.large = new boolean[capacity];
+        this.level = new byte[capacity];
+    }
+}
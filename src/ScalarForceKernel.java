@@ -0,0 +1,47 @@
+import java.util.List;
+
+/**
+ * ForceKernel summing the forces of the source particles one at a time.
+ * The columns of every store are read as plain arrays, with one square root and one division per pair.
+ */
+public class ScalarForceKernel implements ForceKernel {
+    private double softeningSquared; // square of the softening length
+
+    /**
+     * Constructor for ScalarForceKernel objects
+     * @param softeningSquared square of the softening length, larger than 0
+     */
+    public ScalarForceKernel(double softeningSquared) {
+        this.softeningSquared = softeningSquared;
+    }
+
+    @Override
+    public void computeForce(ParticleStore particles, int index, List<ParticleStore> sources) {
+        double locX = particles.locX[index];
+        double locY = particles.locY[index];
+        double sumX = 0;
+        double sumY = 0;
+        for (int s = 0; s < sources.size(); s++) {
+            ParticleStore source = sources.get(s);
+            double[] sourceLocX = source.locX;
+            double[] sourceLocY = source.locY;
+            double[] sourceMass = source.mass;
+            for (int j = 0; j < source.count; j++) {
+                double xLength = sourceLocX[j] - locX;
+                double yLength = sourceLocY[j] - locY;
+                double distanceSquared = xLength * xLength + yLength * yLength + softeningSquared;
+                double weight = sourceMass[j] / (distanceSquared * Math.sqrt(distanceSquared));
+                sumX += xLength * weight;
+                sumY += yLength * weight;
+            }
+        }
+        double scale = particles.mass[index] == 0 ? 3 : 3 * particles.mass[index];
+        particles.forceX[index] = scale * sumX;
+        particles.forceY[index] = scale * sumY;
+    }
+
+    @Override
+    public String getName() {
+        return "scalar";
+    }
+}
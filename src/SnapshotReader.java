@@ -0,0 +1,120 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Class reading back the trajectory file of a process written by SnapshotWriter, one snapshot at a time.
+ * Every snapshot is mapped on its own, so trajectories larger than memory can be read.
+ * Run on its own it prints a summary of every snapshot of the given trajectory files:
+ *   java SnapshotReader 0trajectory.bin [1trajectory.bin ...]
+ * or, with -particles before the file names, every particle of every snapshot.
+ */
+public class SnapshotReader {
+    private FileChannel channel; // trajectory file
+    private int rank; // rank of the process that wrote the file
+    private long position; // offset of the next record in the file
+    private ByteBuffer recordHeader; // header of the next record
+
+    /**
+     * Constructor for SnapshotReader objects
+     * @param fileName trajectory file
+     * @throws IOException if the file is not a trajectory file of this version of the format
+     */
+    public SnapshotReader(String fileName) throws IOException {
+        this.channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ);
+        ByteBuffer header = read(0, SnapshotWriter.HEADER_BYTES);
+        if (header == null || header.getInt(0) != SnapshotWriter.MAGIC) {
+            channel.close();
+            throw new IOException(fileName + " is not a trajectory file");
+        }
+        int version = header.getInt(4);
+        if (version != SnapshotWriter.VERSION) {
+            channel.close();
+            throw new IOException("Unsupported trajectory file version " + version);
+        }
+        this.rank = header.getInt(8);
+        this.position = SnapshotWriter.HEADER_BYTES;
+        this.recordHeader = ByteBuffer.allocate(SnapshotWriter.RECORD_HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * @return rank of the process that wrote the file
+     */
+    public int getRank() {
+        return rank;
+    }
+
+    /**
+     * Reads the next snapshot
+     * @param particles store to decode the particles into, its columns are reused
+     * @return iteration of the snapshot, -1 once every snapshot has been read
+     * @throws IOException
+     */
+    public int next(ParticleStore particles) throws IOException {
+        recordHeader.clear();
+        if (channel.read(recordHeader, position) < SnapshotWriter.RECORD_HEADER_BYTES) {
+            return -1; // the writer did not get to close the file
+        }
+        int iteration = recordHeader.getInt(0);
+        int length = recordHeader.getInt(4);
+        if (length == 0) return -1;
+        ByteBuffer message = read(position + SnapshotWriter.RECORD_HEADER_BYTES, length);
+        if (message == null) return -1;
+        HaloCodec.decode(message, particles);
+        position += SnapshotWriter.RECORD_HEADER_BYTES + length;
+        return iteration;
+    }
+
+    /**
+     * Closes the file
+     * @throws IOException
+     */
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Maps a region of the file
+     * @param offset
+     * @param length
+     * @return the mapped region, null if the file ends before it
+     * @throws IOException
+     */
+    private ByteBuffer read(long offset, int length) throws IOException {
+        if (offset + length > channel.size()) return null;
+        return channel.map(FileChannel.MapMode.READ_ONLY, offset, length).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    public static void main(String... args) throws IOException {
+        boolean printParticles = args.length > 0 && args[0].equals("-particles");
+        ParticleStore particles = new ParticleStore();
+        for (int a = printParticles ? 1 : 0; a < args.length; a++) {
+            SnapshotReader reader = new SnapshotReader(args[a]);
+            int iteration;
+            while ((iteration = reader.next(particles)) >= 0) {
+                if (printParticles) {
+                    for (int i = 0; i < particles.count; i++) {
+                        System.out.println(reader.getRank() + " " + iteration + " " + particles.id[i] + " "
+                                + particles.locX[i] + " " + particles.locY[i] + " " + particles.velocityX[i] + " "
+                                + particles.velocityY[i] + " " + particles.mass[i] + " " + particles.radius[i] + " "
+                                + (particles.large[i] ? 1 : 0));
+                    }
+                    continue;
+                }
+                double mass = 0, centreX = 0, centreY = 0;
+                for (int i = 0; i < particles.count; i++) {
+                    mass += particles.mass[i];
+                    centreX += particles.mass[i] * particles.locX[i];
+                    centreY += particles.mass[i] * particles.locY[i];
+                }
+                System.out.println("Process " + reader.getRank() + " iteration " + iteration + ": "
+                        + particles.count + " particles, mass " + mass + ", centre of mass ("
+                        + (mass > 0 ? centreX / mass : 0) + ", " + (mass > 0 ? centreY / mass : 0) + ")");
+            }
+            reader.close();
+        }
+    }
+}
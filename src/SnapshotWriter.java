@@ -0,0 +1,205 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Class streaming snapshots of the particles of a process to a binary trajectory file on a background thread.
+ * The simulation only copies the particle columns into a free frame and hands it over, so writing never stalls an
+ * iteration unless the writer falls more than FRAMES snapshots behind.
+ * The trajectory file is written through memory-mapped chunks of the file, and is laid out as:
+ *   int magic, int version, int rank of the process, int 0,
+ * followed by one record per snapshot:
+ *   int iteration, int length, and a HaloCodec message of the given length holding the particles.
+ * A record with a length of 0 marks the end of the trajectory. SnapshotReader reads the file back.
+ * A restarted simulation keeps the records of its trajectory file from before the checkpoint it restarted from, and
+ * appends to them.
+ */
+public class SnapshotWriter {
+    static final int MAGIC = 0x5452414A; // "TRAJ"
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 16;
+    static final int RECORD_HEADER_BYTES = 8;
+    private static final int FRAMES = 2; // snapshots that may be waiting to be written
+    private static final long CHUNK_BYTES = 64L << 20; // size of the chunks of the file mapped at a time
+
+    private FileChannel channel; // trajectory file
+    private int rank; // rank of the process
+    private MappedByteBuffer chunk; // mapped chunk of the file the next record is written to
+    private long chunkStart; // offset of the chunk in the file
+    private long written; // number of bytes of the file written so far
+    private ArrayBlockingQueue<Frame> free, pending; // frames ready to be filled and frames waiting to be written
+    private Frame end; // frame handed to the writer thread to stop it
+    private Thread thread; // thread writing the frames
+    private volatile IOException error; // first error of the writer thread, after which snapshots are dropped
+
+    /**
+     * Copy of the particles of a process at an iteration
+     */
+    private static class Frame {
+        int iteration;
+        ParticleStore particles = new ParticleStore();
+    }
+
+    /**
+     * Constructor for SnapshotWriter objects, creates or reopens the trajectory file and starts the writer thread
+     * @param fileName trajectory file
+     * @param rank rank of the process
+     * @param resumeIteration iteration the simulation restarted from, whose records and any later ones are dropped
+     *                        from the existing trajectory file before appending to it, or -1 to replace the file
+     * @throws IOException
+     */
+    public SnapshotWriter(String fileName, int rank, int resumeIteration) throws IOException {
+        this.channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        this.rank = rank;
+        this.free = new ArrayBlockingQueue<>(FRAMES);
+        this.pending = new ArrayBlockingQueue<>(FRAMES + 1);
+        for (int f = 0; f < FRAMES; f++) {
+            free.add(new Frame());
+        }
+        this.end = new Frame();
+        written = resumeIteration >= 0 ? recordsBefore(resumeIteration) : 0;
+        channel.truncate(written);
+        if (written == 0) {
+            ByteBuffer header = reserve(HEADER_BYTES);
+            header.putInt(0, MAGIC);
+            header.putInt(4, VERSION);
+            header.putInt(8, rank);
+            header.putInt(12, 0);
+            written = HEADER_BYTES;
+        }
+        this.thread = new Thread(this::writeFrames, "snapshot-" + rank);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Finds the end of the records of the existing trajectory file before the given iteration. Records are written
+     * in the order of their iterations, and the records of an interrupted run end at a zero length, as the rest of
+     * its last mapped chunk is zero.
+     * @param iteration
+     * @return offset of the first record at or after the iteration, 0 if the file is not a trajectory file of the
+     * current process
+     * @throws IOException
+     */
+    private long recordsBefore(int iteration) throws IOException {
+        long size = channel.size();
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        if (size < HEADER_BYTES || channel.read(header, 0) < HEADER_BYTES || header.getInt(0) != MAGIC
+                || header.getInt(4) != VERSION || header.getInt(8) != rank) {
+            return 0;
+        }
+        long offset = HEADER_BYTES;
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        while (offset + RECORD_HEADER_BYTES <= size) {
+            record.clear();
+            if (channel.read(record, offset) < RECORD_HEADER_BYTES) break;
+            int length = record.getInt(4);
+            if (length <= 0 || record.getInt(0) >= iteration || offset + RECORD_HEADER_BYTES + length > size) break;
+            offset += RECORD_HEADER_BYTES + length;
+        }
+        return offset;
+    }
+
+    /**
+     * Copies the particles and queues them to be written, waiting only if every frame is still waiting to be written
+     * @param iteration current iteration of the simulation
+     * @param particles particles of the current universe
+     */
+    public void submit(int iteration, ParticleStore particles) {
+        if (error != null) return;
+        try {
+            Frame frame = free.take();
+            frame.iteration = iteration;
+            frame.particles.copyFrom(particles);
+            pending.put(frame);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Waits for every queued snapshot to be written, marks the end of the trajectory and closes the file
+     */
+    public void close() {
+        try {
+            pending.put(end);
+            thread.join();
+            if (error == null) {
+                ByteBuffer record = reserve(RECORD_HEADER_BYTES);
+                record.putInt(0, 0);
+                record.putInt(4, 0);
+                written += RECORD_HEADER_BYTES;
+            }
+            chunk = null;
+            channel.truncate(written);
+            channel.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            System.out.println(e);
+        }
+    }
+
+    /**
+     * Body of the writer thread, writes frames until the end frame arrives
+     */
+    private void writeFrames() {
+        while (true) {
+            Frame frame;
+            try {
+                frame = pending.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (frame == end) return;
+            if (error == null) {
+                try {
+                    write(frame);
+                } catch (IOException e) {
+                    System.out.println(e);
+                    error = e;
+                }
+            }
+            free.add(frame);
+        }
+    }
+
+    /**
+     * Encodes a frame straight into the mapped file
+     * @param frame
+     * @throws IOException
+     */
+    private void write(Frame frame) throws IOException {
+        int length = HaloCodec.encodedSize(frame.particles.count);
+        ByteBuffer record = reserve(RECORD_HEADER_BYTES + length);
+        record.putInt(0, frame.iteration);
+        record.putInt(4, length);
+        record.position(RECORD_HEADER_BYTES);
+        ByteBuffer message = record.slice().order(ByteOrder.LITTLE_ENDIAN);
+        HaloCodec.encode(frame.particles, rank, message);
+        written += RECORD_HEADER_BYTES + length;
+    }
+
+    /**
+     * Maps a new chunk of the file if the given number of bytes do not fit in the current one
+     * @param bytes number of bytes about to be written
+     * @return buffer over the next bytes of the file, from position 0
+     * @throws IOException
+     */
+    private ByteBuffer reserve(int bytes) throws IOException {
+        if (chunk == null || written + bytes > chunkStart + chunk.capacity()) {
+            chunkStart = written;
+            chunk = channel.map(FileChannel.MapMode.READ_WRITE, chunkStart, Math.max(CHUNK_BYTES, bytes));
+        }
+        ByteBuffer region = chunk.duplicate();
+        region.position((int)(written - chunkStart));
+        region.limit(region.position() + bytes);
+        return region.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+}
@@ -0,0 +1,286 @@
+import mpi.MPIException;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+
+/**
+ * Communicator between ranks running as threads of a single JVM, so the simulation can run without an MPI runtime.
+ * Messages are not copied: the receiving rank is handed a view of the buffer of the sending rank and decodes the
+ * particles straight out of it. Sends complete as soon as the message is delivered to the mailbox of the receiving
+ * rank, and messages between a pair of ranks with the same tag are received in the order they were sent.
+ * Collectives publish the array of every rank and combine them in rank order, so every rank gets the same result.
+ */
+public class ThreadCommunicator implements Communicator {
+    private Shared shared; // state shared by every rank of the run
+    private int rank; // rank of the thread
+    private LinkedList<Message> mailbox; // messages delivered to this rank and not received yet
+    private int columns, rows; // layout of the grid of ranks
+
+    /**
+     * Interface for the work done by every rank
+     */
+    public interface RankTask {
+        void run(Communicator communicator) throws Exception;
+    }
+
+    /**
+     * State shared by every rank of a run
+     */
+    private static class Shared {
+        int size; // number of ranks
+        ArrayList<LinkedList<Message>> mailboxes = new ArrayList<>(); // mailbox of every rank
+        CyclicBarrier barrier; // synchronizes the ranks within collectives
+        double[][] published; // array of every rank taking part in the current collective
+        volatile boolean aborted; // set once a rank failed, so that the others stop waiting for it
+    }
+
+    /**
+     * Constructor for ThreadCommunicator objects, use run to start the ranks
+     * @param shared
+     * @param rank
+     */
+    private ThreadCommunicator(Shared shared, int rank) {
+        this.shared = shared;
+        this.rank = rank;
+        this.mailbox = shared.mailboxes.get(rank);
+        this.columns = shared.size;
+        this.rows = 1;
+    }
+
+    /**
+     * Runs the task on the given number of ranks, each on a thread of its own, and returns once all of them are done.
+     * If a rank fails, the error is printed and the ranks waiting on it are stopped.
+     * @param size number of ranks
+     * @param task work done by every rank
+     */
+    public static void run(int size, RankTask task) {
+        Shared shared = new Shared();
+        shared.size = size;
+        shared.barrier = new CyclicBarrier(size);
+        shared.published = new double[size][];
+        for (int r = 0; r < size; r++) {
+            shared.mailboxes.add(new LinkedList<>());
+        }
+        Thread[] threads = new Thread[size];
+        for (int r = 0; r < size; r++) {
+            ThreadCommunicator communicator = new ThreadCommunicator(shared, r);
+            threads[r] = new Thread(() -> {
+                try {
+                    task.run(communicator);
+                } catch (Exception e) {
+                    System.out.println(e);
+                    communicator.abort();
+                }
+            }, "rank-" + r);
+            threads[r].start();
+        }
+        for (Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Stops every rank waiting for a message or a collective
+     */
+    private void abort() {
+        shared.aborted = true;
+        shared.barrier.reset();
+        for (LinkedList<Message> other : shared.mailboxes) {
+            synchronized (other) {
+                other.notifyAll();
+            }
+        }
+    }
+
+    @Override
+    public int getRank() {
+        return rank;
+    }
+
+    @Override
+    public int getSize() {
+        return shared.size;
+    }
+
+    /**
+     * Every rank runs on the same node, so the ranks are kept as they are
+     */
+    @Override
+    public Communicator createGrid(int columns, int rows) throws MPIException {
+        ThreadCommunicator grid = new ThreadCommunicator(shared, rank);
+        grid.columns = columns;
+        grid.rows = rows;
+        return grid;
+    }
+
+    @Override
+    public int rankAt(int column, int row) throws MPIException {
+        return Math.floorMod(row, rows) * columns + Math.floorMod(column, columns);
+    }
+
+    /**
+     * Delivers a view of the buffer to the receiving rank, the buffer itself is not copied
+     */
+    @Override
+    public void send(ByteBuffer buffer, int destination, int tag) throws MPIException {
+        ByteBuffer view = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        view.position(0);
+        Message message = new Message(view);
+        message.source = rank;
+        message.tag = tag;
+        LinkedList<Message> other = shared.mailboxes.get(destination);
+        synchronized (other) {
+            other.add(message);
+            other.notifyAll();
+        }
+    }
+
+    @Override
+    public void receive(Message message, int source, int tag) throws MPIException {
+        synchronized (mailbox) {
+            while (!take(message, source, tag)) {
+                await();
+            }
+        }
+    }
+
+    @Override
+    public void iSend(Message message, ByteBuffer buffer, int destination, int tag) throws MPIException {
+        send(buffer, destination, tag);
+        message.source = rank;
+        message.tag = tag;
+        message.request = null;
+        message.complete = true;
+    }
+
+    /**
+     * The size is not needed, the message is handed over as it was sent
+     */
+    @Override
+    public void iRecv(Message message, int bytes, int source, int tag) throws MPIException {
+        message.source = source;
+        message.tag = tag;
+        message.complete = false;
+    }
+
+    @Override
+    public int waitAny(Message[] messages) throws MPIException {
+        synchronized (mailbox) {
+            while (true) {
+                boolean pending = false;
+                for (int i = 0; i < messages.length; i++) {
+                    if (messages[i].complete) continue;
+                    pending = true;
+                    if (take(messages[i], messages[i].source, messages[i].tag)) return i;
+                }
+                if (!pending) return -1;
+                await();
+            }
+        }
+    }
+
+    @Override
+    public void waitAll(Message[] messages) throws MPIException {
+        while (waitAny(messages) >= 0) {
+        }
+    }
+
+    /**
+     * Takes the first message matching the source and tag out of the mailbox, the caller holds its lock
+     * @param message updated with the matching message
+     * @param source rank to receive from, or ANY_SOURCE
+     * @param tag tag to receive, or ANY_TAG
+     * @return true if a matching message was found
+     */
+    private boolean take(Message message, int source, int tag) {
+        Iterator<Message> iterator = mailbox.iterator();
+        while (iterator.hasNext()) {
+            Message delivered = iterator.next();
+            if ((source == ANY_SOURCE || delivered.source == source) && (tag == ANY_TAG || delivered.tag == tag)) {
+                iterator.remove();
+                message.buffer = delivered.buffer;
+                message.source = delivered.source;
+                message.tag = delivered.tag;
+                message.complete = true;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Waits for the next message to be delivered, the caller holds the lock of the mailbox
+     */
+    private void await() {
+        if (shared.aborted) throw new IllegalStateException("Rank " + rank + " stopped after another rank failed");
+        try {
+            mailbox.wait();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Waits until every rank has reached the same point of a collective
+     */
+    private void barrier() {
+        try {
+            shared.barrier.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (BrokenBarrierException e) {
+            throw new IllegalStateException("Rank " + rank + " stopped after another rank failed");
+        }
+    }
+
+    @Override
+    public void allReduceSum(double[] send, double[] receive, int count) throws MPIException {
+        shared.published[rank] = send;
+        barrier();
+        for (int i = 0; i < count; i++) {
+            double sum = 0;
+            for (int r = 0; r < shared.size; r++) {
+                sum += shared.published[r][i];
+            }
+            receive[i] = sum;
+        }
+        barrier();
+    }
+
+    @Override
+    public void allReduceMax(double[] send, double[] receive, int count) throws MPIException {
+        shared.published[rank] = send;
+        barrier();
+        for (int i = 0; i < count; i++) {
+            double max = Double.NEGATIVE_INFINITY;
+            for (int r = 0; r < shared.size; r++) {
+                max = Math.max(max, shared.published[r][i]);
+            }
+            receive[i] = max;
+        }
+        barrier();
+    }
+
+    @Override
+    public void allGatherv(double[] send, int sendCount, double[] receive, int[] counts, int[] displacements)
+            throws MPIException {
+        shared.published[rank] = send;
+        barrier();
+        for (int r = 0; r < shared.size; r++) {
+            System.arraycopy(shared.published[r], 0, receive, displacements[r], counts[r]);
+        }
+        barrier();
+    }
+}
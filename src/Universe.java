@@ -8,11 +8,45 @@ import java.util.List;
  * The Universe class represents an individual processor's grid with its own particles
  */
 public class Universe {
-    private ArrayList<Particle> smallParticles; // small particles in current universe
-    private ArrayList<Particle> largeParticles; // large particles in current universe
-    private ArrayList<UniverseToSend> data; // array to collect data being sent between processes
-    private UniverseToSend universeToSend; // serializable object consisting of small and large particles and rank
-    private int gridSize; // gridSize as specified in initalspec.txt file
+    private ParticleStore particles; // small and large particles in current universe
+    private Communicator communicator; // communication with the other processes
+    private HaloExchange exchange; // migrants and ghosts exchanged with the processes in the horizon
+    private Decomposition decomposition; // division of the whole universe between the processes
+    private LoadBalancer loadBalancer; // moves the bounds of the universes to even out the work, null if disabled
+    private long computeNanos; // time spent in the force and integration loops since the last repartition
+    private SnapshotWriter snapshotWriter; // writes snapshots of the particles in the background, null if disabled
+    private int snapshotInterval; // iterations between snapshots
+    private PPM image; // renders the current universe into images of the whole universe
+    private int frameInterval; // iterations between frames, 0 for no frames
+    private String framePrefix; // file name of the frames, followed by the iteration
+    private Checkpoint checkpoint; // writes and reads the checkpoints of the simulation
+    private int checkpointInterval; // iterations between checkpoints, 0 for no checkpoints
+    private Metrics metrics; // time spent in every step of an iteration and other metrics of the process
+    private int metricsInterval; // iterations between reports of the metrics, 0 for no reports
+    private ForceSolver forceSolver; // method of calculating the forces as specified in initialspec.txt file
+    private ForceKernel forceKernel; // pairwise kernel of the solvers summing forces exactly, once one needs it
+    private LargeParticleForceSolver largeSolver; // forceSolver when every process has every large particle, or null
+    private CollisionResolver collisionResolver; // merges the particles that touch, null if disabled
+    private int resident; // particles of the current universe that were in it at the last export
+    private WorkPool workPool; // threads running the force and integration loops over the particles
+    private WorkPool.IndexTask forceTask; // force calculation of a single particle
+    private WorkPool.IndexTask startTask; // closing kick of the last step of a single particle and its new level
+    private WorkPool.IndexTask openingTask; // opening kick and first drift of a single particle
+    private WorkPool.IndexTask subStepTask; // kicks of a single particle whose step ends at a sub-step, and its drift
+    private WorkPool.IndexTask activeForceTask; // force calculation of a single particle whose step ends at a sub-step
+    private WorkPool.IndexTask interiorForceTask; // force calculation of a particle that does not need received ghosts
+    private WorkPool.IndexTask boundaryForceTask; // force calculation of a particle left after interiorForceTask
+    private double timeStep; // time step of the current iteration, the step of a particle at level 0
+    private int blockLevels; // finest block time-step level a particle may step at
+    private double timeStepAccuracy; // largest distance the acceleration may move a particle within its step
+    private int finestLevel; // finest level of any particle of any process in the current iteration
+    private int subStep; // current sub-step of the iteration, each timeStep / 2^finestLevel long
+    private int[] active = new int[0]; // particles whose step ends at the current sub-step
+    private int activeCount; // number of particles in active
+    private long forceEvaluations; // forces calculated since the start of the run
+    private ArrayList<ParticleStore> noHalo; // empty halo to prepare the force solver with before ghosts have arrived
+    private boolean nonBlockingExchange; // true to exchange data with every process in the horizon at once
+    private double domainWidth, domainHeight; // size of the universe of a process before any load balancing
     private int horizon; // horizon as specified in initalspec.txt file
     public int rank; // rank of process
     private int size; // size of processes being run
@@ -25,89 +59,361 @@ public class Universe {
     /**
      * Constructor for Universe objects
      * @param specs InitialSpec object containing values from the parsed initialspec.txt file
-     * @param rank Rank of the process
-     * @param size Number of processes in the simulation
+     * @param communicator Communication with the other processes, giving the rank of the process and their number
+     * @throws MPIException
+     * @throws IOException if the checkpoint to restart from or the particle file cannot be read
      */
-    public Universe(InitialSpec specs, int rank, int size) {
-        this.rank = rank;
-        this.size = size;
-        this.row = (int)(rank / Math.sqrt((double)size));
-        this.column = (int)(rank % Math.sqrt((double)size));
-        this.gridSize = specs.gridSize;
+    public Universe(InitialSpec specs, Communicator communicator) throws MPIException, IOException {
+        this.size = communicator.getSize();
+        double boxWidth = specs.boxWidth;
+        double boxHeight = specs.boxHeight;
+        if (specs.restart) {
+            // the universe keeps the size it had when the checkpoint was taken, whatever the number of processes
+            Checkpoint restartFrom = new Checkpoint(specs.checkpointPrefix, communicator);
+            int latest = restartFrom.latest();
+            if (latest >= 0) {
+                double[] box = restartFrom.readSize(latest);
+                boxWidth = box[0];
+                boxHeight = box[1];
+            }
+        }
+        this.decomposition = Decomposition.create(size, boxWidth, boxHeight, specs.gridSize);
+        // the grid communicator may renumber the processes, so the rank is only known once it exists
+        this.communicator = communicator.createGrid(decomposition.getColumns(), decomposition.getRows());
+        this.rank = this.communicator.getRank();
+        this.row = decomposition.getRow(rank);
+        this.column = decomposition.getColumn(rank);
+        this.domainWidth = decomposition.getDomainWidth();
+        this.domainHeight = decomposition.getDomainHeight();
         this.horizon = specs.horizon;
+        if (specs.forceSolver.equals("celllist") && specs.cutoffRadius > 0) {
+            // only the processes within the cutoff of the current universe need to communicate with it
+            this.horizon = GridUtil.horizonForCutoff(specs.cutoffRadius, Math.min(domainWidth, domainHeight));
+        }
         this.timeSlots = specs.timeSlots;
         this.iteration = 1;
-        this.data = new ArrayList<>();
-        this.smallParticles = generateSmallParticles(specs);
-        this.largeParticles = generateLargeParticles(specs);
-        this.universeToSend = new UniverseToSend(smallParticles, largeParticles, rank);
-        this.ranksInHorizon = GridUtil.shouldSend(rank, horizon, size);
+        this.forceSolver = createForceSolver(specs);
+        this.workPool = new WorkPool(specs.threads);
+        this.forceTask = i -> forceSolver.computeForce(particles, i);
+        this.interiorForceTask = i -> {
+            if (isInterior(particles, i)) {
+                forceSolver.computeForce(particles, i);
+            }
+        };
+        this.boundaryForceTask = i -> {
+            if (!isInterior(particles, i)) {
+                forceSolver.computeForce(particles, i);
+            }
+        };
+        this.noHalo = new ArrayList<>();
+        this.blockLevels = specs.blockLevels;
+        this.timeStepAccuracy = specs.timeStepAccuracy;
+        this.startTask = i -> {
+            int level = particles.level[i];
+            if (level >= 0) {
+                Particle.kick(particles, i, stepOf(level) / 2);
+            }
+            particles.level[i] = (byte)Particle.chooseLevel(particles, i, timeStep, timeStepAccuracy, blockLevels);
+        };
+        this.openingTask = i -> {
+            Particle.kick(particles, i, stepOf(particles.level[i]) / 2);
+            Particle.drift(particles, i, stepOf(finestLevel), decomposition.getWidth(), decomposition.getHeight());
+        };
+        this.subStepTask = i -> {
+            int level = particles.level[i];
+            if (isActive(level)) {
+                Particle.kick(particles, i, stepOf(level) / 2);
+                int newLevel = Particle.chooseLevel(particles, i, timeStep, timeStepAccuracy, finestLevel);
+                // a particle may only move to a coarser level at a sub-step where a step of that level ends
+                while (newLevel < level && subStep % (1 << (finestLevel - newLevel)) != 0) {
+                    newLevel++;
+                }
+                particles.level[i] = (byte)newLevel;
+                Particle.kick(particles, i, stepOf(newLevel) / 2);
+            }
+            Particle.drift(particles, i, stepOf(finestLevel), decomposition.getWidth(), decomposition.getHeight());
+        };
+        this.activeForceTask = a -> forceSolver.computeForce(particles, active[a]);
+        this.particles = new ParticleStore(specs.numberOfSmallParticles + specs.numberOfLargeParticles);
+        this.metrics = new Metrics(this.communicator, specs.metricsFile);
+        this.metricsInterval = specs.metricsInterval;
+        this.checkpoint = new Checkpoint(specs.checkpointPrefix, this.communicator);
+        this.checkpointInterval = specs.checkpointInterval;
+        int restartIteration = specs.restart ? checkpoint.latest() : -1;
+        int scatterFrom = -1; // first generated particle still to be handed to the process owning it, -1 if none
+        if (restartIteration >= 0) {
+            // resume after the iteration the checkpoint was taken at, every process finds the same checkpoint
+            checkpoint.read(restartIteration, particles, decomposition);
+            this.iteration = restartIteration + 1;
+            if (rank == 0) {
+                System.out.println("Restarting from the checkpoint of iteration " + restartIteration);
+            }
+        } else {
+            generateLargeParticles(specs);
+            if (specs.particleFile.isEmpty()) {
+                scatterFrom = generateSmallParticles(specs);
+            } else {
+                ParticleFile.read(specs.particleFile, decomposition, rank, particles);
+            }
+        }
+        this.ranksInHorizon = GridUtil.shouldSend(
+                this.communicator, horizon, decomposition.getColumns(), decomposition.getRows());
+        this.nonBlockingExchange = specs.exchange.equals("nonblocking");
+        this.exchange = new HaloExchange(this.communicator, ranksInHorizon);
+        if (scatterFrom >= 0) {
+            exchange.scatter(particles, scatterFrom, decomposition);
+        }
+        if (specs.loadBalanceInterval > 0) {
+            // a universe narrower than the interaction range over the horizon would need ghosts from beyond it
+            double range = forceSolver.getInteractionRange();
+            double minimumWidth = specs.minDomainWidth > 0
+                    ? specs.minDomainWidth : Math.min(domainWidth, domainHeight) / 4;
+            if (range != Double.POSITIVE_INFINITY && horizon > 0) {
+                minimumWidth = Math.max(minimumWidth, range / horizon);
+            }
+            if (specs.collisions && horizon > 0) {
+                // wide enough for the largest particle of initialspec.txt to absorb a small one
+                double radius = specs.smallParticleRadius;
+                for (LargeParticleSpec large : specs.largeParticleSpecs) {
+                    radius = Math.max(radius, large.radius);
+                }
+                minimumWidth = Math.max(minimumWidth, 4 * Math.hypot(radius, specs.smallParticleRadius) / horizon);
+            }
+            if (minimumWidth >= Math.min(domainWidth, domainHeight) && rank == 0) {
+                System.out.println("Load balancing cannot move any cut: the smallest universe width " + minimumWidth
+                        + " is not below the current one, lower MinDomainWidth or CutoffRadius below"
+                        + " Horizon * GridSize");
+            }
+            this.loadBalancer = new LoadBalancer(
+                    decomposition, this.communicator, specs.loadBalanceInterval, minimumWidth);
+        }
+        if (specs.collisions) {
+            // the ghosts within 4 times the largest merged radius need to come from processes in the horizon, which
+            // bounds the limit the resolver derives from the radii at every export
+            double narrowest = Math.min(domainWidth, domainHeight);
+            if (loadBalancer != null) {
+                narrowest = Math.min(narrowest, loadBalancer.getMinimumWidth());
+            }
+            double horizonRadius = horizon > 0 && size > 1 ? horizon * narrowest / 4 : Double.POSITIVE_INFINITY;
+            this.collisionResolver = new CollisionResolver(
+                    decomposition.getWidth(), decomposition.getHeight(), horizonRadius);
+        }
+        exportParticles();
+        this.image = new PPM(decomposition.getWidth(), decomposition.getHeight());
+        this.frameInterval = specs.frameInterval;
+        this.framePrefix = specs.framePrefix;
+        if (specs.snapshotInterval > 0) {
+            this.snapshotInterval = specs.snapshotInterval;
+            try {
+                // a restart appends to the trajectory written up to the checkpoint
+                this.snapshotWriter = new SnapshotWriter("" + rank + specs.snapshotFile, rank, restartIteration);
+                snapshotWriter.submit(iteration - 1, particles);
+            } catch (IOException e) {
+                System.out.println(e);
+            }
+        }
     }
 
     /**
-     * Method to initialize location of small particles in the process's universe
+     * Method to initialize location of small particles in the process's universe, reproducibly from the seed and
+     * in parallel over the threads of the work pool
      * @param specs InitialSpec object created from parsing the initialspec.txt file
-     * @return returns a list of Particle objects representing the small particles in the process's universe
+     * @return index of the first generated particle if they still have to be scattered to the processes owning
+     *         them, -1 if they are all in the process's universe
      */
-    private ArrayList<Particle> generateSmallParticles(InitialSpec specs) {
-        ArrayList<Particle> particles = new ArrayList<>();
-        for (int i = 0; i < specs.numberOfSmallParticles; i++) {
-            Particle smallParticle = Particle.createSmallParticle(
-                    specs.smallParticleRadius, specs.smallParticleMass, specs.gridSize, row, column);
-            particles.add(smallParticle);
-        }
-        return particles;
+    private int generateSmallParticles(InitialSpec specs) {
+        ParticleGenerator generator = new ParticleGenerator(specs, decomposition, rank);
+        int first = particles.count;
+        generator.generate(particles, specs.numberOfSmallParticles, particleId(specs.numberOfLargeParticles),
+                specs.smallParticleRadius, specs.smallParticleMass, workPool);
+        return generator.isScattered() ? first : -1;
     }
 
     /**
      * Method to initialize large particles in the process's universe
      * @param specs InitialSpec object created from parsing the initialspec.txt file
-     * @return returns a list of Particle objects representing the large particles in the process's universe
      */
-    private ArrayList<Particle> generateLargeParticles(InitialSpec specs) {
-        ArrayList<Particle> particles = new ArrayList<>();
+    private void generateLargeParticles(InitialSpec specs) {
         for (int i = 0; i < specs.numberOfLargeParticles; i++) {
-            Particle largeParticle = Particle.createLargeParticle(
-                    specs.largeParticleSpecs.get(i), gridSize, row, column);
-            particles.add(largeParticle);
+            Particle.createLargeParticle(
+                    particles, particleId(i), specs.largeParticleSpecs.get(i), domainWidth, domainHeight, row, column);
         }
-        return particles;
     }
 
     /**
-     * Generates PPM file with the filename specified preceded by the process's rank
-     * i.e. process with rank 2 will create file 2finalbrd.ppm if given filename is finalbrd.ppm
+     * @param n number of the particle among the particles created by the current process
+     * @return id of the particle, unique over the whole universe
+     */
+    private long particleId(int n) {
+        return ((long)rank << 32) | n;
+    }
+
+    /**
+     * Method to create the force solver selected in the initialspec.txt file, wrapped in a LargeParticleForceSolver
+     * if the large particles are replicated on every process. With tracers, the LargeParticleForceSolver alone
+     * calculates every force
+     * @param specs InitialSpec object created from parsing the initialspec.txt file
+     * @return the ForceSolver to calculate the forces on the particles with
+     */
+    private ForceSolver createForceSolver(InitialSpec specs) {
+        if (specs.tracers) {
+            this.largeSolver = new LargeParticleForceSolver(null, createForceKernel(specs), communicator);
+            return largeSolver;
+        }
+        ForceSolver solver = createSmallForceSolver(specs);
+        if (!specs.replicateLarge) return solver;
+        this.largeSolver = new LargeParticleForceSolver(solver, createForceKernel(specs), communicator);
+        return largeSolver;
+    }
+
+    /**
+     * Method to create the force solver selected in the initialspec.txt file, which is the solver of the small
+     * particles when the large particles are replicated on every process
+     * @param specs InitialSpec object created from parsing the initialspec.txt file
+     * @return the ForceSolver to calculate the forces on the particles with
+     */
+    private ForceSolver createSmallForceSolver(InitialSpec specs) {
+        double width = decomposition.getWidth();
+        double height = decomposition.getHeight();
+        switch (specs.forceSolver) {
+            case "barneshut":
+                return new BarnesHutForceSolver(specs.openingAngle, specs.softening);
+            case "pm":
+                int meshSize = specs.meshSize > 0
+                        ? specs.meshSize : ParticleMeshForceSolver.defaultMeshSize(width, height);
+                return new ParticleMeshForceSolver(meshSize, width, height, communicator);
+            case "celllist":
+                // the default leaves load balancing room to shrink a universe to half of GridSize
+                double cutoff = specs.cutoffRadius > 0 ? specs.cutoffRadius
+                        : Math.max(horizon, 1) * Math.min(domainWidth, domainHeight)
+                                / (specs.loadBalanceInterval > 0 ? 2 : 1);
+                return new CellListForceSolver(cutoff, width, height, specs.softening);
+            case "direct":
+                return new DirectForceSolver(createForceKernel(specs));
+            default:
+                System.out.println("Unknown force solver " + specs.forceSolver + ", using direct");
+                return new DirectForceSolver(createForceKernel(specs));
+        }
+    }
+
+    /**
+     * Method to create the pairwise force kernel selected in the initialspec.txt file, falling back to the scalar
+     * kernel if the Vector API is not available. The kernel is created once and shared by the solvers using it.
+     * @param specs InitialSpec object created from parsing the initialspec.txt file
+     * @return the ForceKernel to sum the pairwise forces with
+     */
+    private ForceKernel createForceKernel(InitialSpec specs) {
+        if (forceKernel != null) return forceKernel;
+        ForceKernel kernel = ForceKernel.create(specs.forceKernel, specs.softening);
+        this.forceKernel = kernel;
+        if (rank == 0) {
+            if (specs.forceKernel.equals("vector") && kernel instanceof ScalarForceKernel) {
+                System.out.println("The Vector API is not available, run java with --add-modules jdk.incubator.vector");
+            }
+            System.out.println("Using the " + kernel.getName() + " force kernel");
+        }
+        return kernel;
+    }
+
+    /**
+     * Generates the PPM file of the whole universe with the filename specified.
+     * Every process renders its own universe and writes it into its part of the file, and the process with rank 0
+     * writes the header. Particles that left the current universe during the iteration and have not been handed over
+     * yet are only drawn if they are still within its part of the image. Large particles of other processes reaching
+     * into its part of the image are drawn from the replicated large particles, or from the ghosts without them. Those
+     * are only moved along between sub-steps, so without block time-steps they are caught up with the step first.
      * @param filename
      */
     public void generatePPM(String filename) {
-        PPM ppm = new PPM(gridSize, smallParticles, largeParticles, row, column);
-        filename = "" + rank + filename;
-        try (PrintWriter out = new PrintWriter(filename)) {
-            out.println(ppm.toString());
-            out.close();
-        } catch (Exception e) {
-            System.out.println("Cannot open file");
+        double[] xCuts = decomposition.getXCuts();
+        double[] yCuts = decomposition.getYCuts();
+        List<ParticleStore> others = largeSolver != null ? List.of(largeSolver.getLargeParticles())
+                : exchange.getGhosts();
+        if (finestLevel == 0) {
+            for (ParticleStore store : others) {
+                driftAll(store);
+            }
+        }
+        image.render(particles, others, xCuts[column], yCuts[row], xCuts[column + 1], yCuts[row + 1]);
+        try {
+            image.write(filename, rank == 0);
+        } catch (IOException e) {
+            System.out.println("Cannot write file " + filename);
         }
     }
 
     /**
      * Main function to handle the iterations of the simulation.
-     * There are 5 main things that need to be done at each iteration.
+     * There are 4 main things that need to be done at each iteration.
      * 1. Add particles that entered current universe
      * 2. Update forces on particles in the current universe
-     * 3. Update locations of the particles in the current universe
-     * 4. Update UniverseToSend object with the latest state of the current universe
-     * 5. Remove any particles from current universe that exited during the iteration
+     * 3. Update locations and velocities of the particles in the current universe over the time step
+     * 4. Hand over the particles that exited the current universe and pick the ghosts to send to other processes
+     * With load balancing, the bounds of the universes are moved before step 4 every few iterations, so that the
+     * particles handed over include the ones that the current universe gave up.
+     * With the non-blocking exchange the data of the processes in the horizon is exchanged here rather than through
+     * syncData. The migrants are waited for first, and the forces on particles that do not depend on the ghosts are
+     * calculated while the ghosts are in flight.
+     * With collisions, the touching particles are merged between steps 1 and 2, which needs the ghosts, so the
+     * non-blocking exchange then waits for them before calculating any force.
+     * Every few iterations a snapshot of the particles is handed to the snapshot writer, a frame of the whole
+     * universe is written and a checkpoint is taken, after step 3. Restarting from the checkpoint continues with
+     * step 4 of the same iteration.
+     * The time spent in every step is added to the metrics, which are reported every few iterations.
      * @param timeStep
      */
     public void simulateIteration(double timeStep) {
         try {
-            addEnteredParticles();
-            updateForcesOnParticles();
-            updateLocationsOfParticles(timeStep);
-            updateUniverseToSend();
+            long time = System.nanoTime();
+            if (nonBlockingExchange) {
+                exchange.start();
+                exchange.finishMigrants();
+                time = metrics.lap(Metrics.SYNC, time);
+                addEnteredParticles();
+                time = metrics.lap(Metrics.ADD_ENTERED, time);
+                if (collisionResolver != null) {
+                    exchange.finishGhosts();
+                    time = metrics.lap(Metrics.SYNC, time);
+                    resolveCollisions();
+                    updateForcesOnParticles();
+                } else {
+                    updateInteriorForces();
+                    time = metrics.lap(Metrics.FORCES, time);
+                    exchange.finishGhosts();
+                    time = metrics.lap(Metrics.SYNC, time);
+                    updateBoundaryForces();
+                }
+            } else {
+                addEnteredParticles();
+                time = metrics.lap(Metrics.ADD_ENTERED, time);
+                resolveCollisions();
+                updateForcesOnParticles();
+            }
+            time = metrics.lap(Metrics.FORCES, time);
+            time = updateLocationsOfParticles(timeStep, time);
+            metrics.set(Metrics.PARTICLES, particles.count);
+            if (snapshotWriter != null && iteration % snapshotInterval == 0) {
+                // taken before the particles that left are handed over, so that every particle is in one snapshot
+                snapshotWriter.submit(iteration, particles);
+            }
+            if (frameInterval > 0 && iteration % frameInterval == 0) {
+                generatePPM(framePrefix + String.format("%06d", iteration) + ".ppm");
+            }
+            if (checkpointInterval > 0 && iteration % checkpointInterval == 0) {
+                checkpoint.write(iteration, particles, decomposition);
+            }
+            time = metrics.lap(Metrics.OUTPUT, time);
             if (iteration < timeSlots) {
-                removeExitedParticles(); // remove particles only when it's not on the last iteration of the simulation
+                if (loadBalancer != null && loadBalancer.isDue(iteration)) {
+                    loadBalancer.rebalance(computeNanos);
+                    computeNanos = 0;
+                    time = metrics.lap(Metrics.BALANCE, time);
+                }
+                exportParticles(); // hand over particles only when it's not on the last iteration of the simulation
+                metrics.lap(Metrics.MIGRATE, time);
+            }
+            if (metricsInterval > 0 && iteration % metricsInterval == 0) {
+                reportMetrics();
             }
         } catch (Exception e) {
             System.out.println(e);
@@ -115,107 +421,237 @@ public class Universe {
     }
 
     /**
-     * Updates current serializable universe to send to other processes within the horizon
+     * Removes the particles that exited the current universe and encodes them, together with the particles within
+     * the interaction range of the force solver of each process in the horizon, to send to those processes.
+     * With collisions, the ghosts reach at least as far as the collision resolver needs them to, which follows the
+     * largest radius of any particle.
+     * With replicated large particles, every process first gathers the large particles of every other one.
+     * @throws MPIException
      */
-    private void updateUniverseToSend() {
-        this.universeToSend = new UniverseToSend(smallParticles, largeParticles, rank);
+    private void exportParticles() throws MPIException {
+        if (largeSolver != null) {
+            largeSolver.gather(particles);
+        }
+        if (collisionResolver != null) {
+            double[] local = {0};
+            for (int i = 0; i < particles.count; i++) {
+                local[0] = Math.max(local[0], particles.radius[i]);
+            }
+            double[] largest = new double[1];
+            communicator.allReduceMax(local, largest, 1);
+            collisionResolver.setLargestRadius(largest[0]);
+        }
+        double range = forceSolver.getInteractionRange();
+        if (collisionResolver != null && collisionResolver.getInteractionRange() != Double.POSITIVE_INFINITY) {
+            range = Math.max(range, collisionResolver.getInteractionRange());
+        }
+        exchange.exportParticles(particles, decomposition, range, largeSolver == null);
+        resident = particles.count;
+    }
+
+    /**
+     * Merges the particles of the current universe that touch another particle, before the forces are calculated.
+     * The particles handed over at the last export are left out, since the other processes have no ghosts of them.
+     */
+    private void resolveCollisions() {
+        if (collisionResolver == null) return;
+        ParticleStore replicatedLarge = largeSolver != null ? largeSolver.getLargeParticles() : null;
+        collisionResolver.resolve(particles, resident, exchange.getGhosts(), replicatedLarge);
     }
 
     /**
-     * Updates the locations of the particles in the universe
+     * Updates the locations and velocities of the particles in the universe with a kick-drift-kick leapfrog
+     * integrator using block time-steps, in parallel over the threads of the work pool.
+     * Every particle steps timeStep / 2^level at a time, where its level is chosen from its acceleration, so that
+     * only the few particles feeling strong forces take short steps. The time step is split into 2^finestLevel
+     * sub-steps, where the finest level is agreed by every process so that a force solver communicating in prepare
+     * is prepared the same number of times by each of them. At every sub-step only the forces on the particles whose
+     * step ends there are calculated again, against the ghosts moved along with their velocities.
+     * A particle is kicked by half of its step at the start of the step, with the forces at that time, and by the
+     * other half at its end. The closing kick of the last step of the iteration is only given at the start of the next
+     * iteration, once the forces have been calculated with the particles exchanged in between, so velocities are half
+     * a step ahead of locations between iterations. A level of -1 marks a particle that has not stepped yet.
      * @param timeStep The time step to perform the physics calculations with
+     * @param time time the integration started at, from System.nanoTime
+     * @return the current time, which is the start of the next phase
+     * @throws MPIException
      */
-    private void updateLocationsOfParticles(double timeStep) {
-        for (Particle particle : largeParticles) {
-            if (isInCurrentUniverse(particle)) {
-                particle.updateLocationAndVelocity(timeStep, gridSize, size);
-            }
+    private long updateLocationsOfParticles(double timeStep, long time) throws MPIException {
+        this.timeStep = timeStep;
+        forceEvaluations += particles.count;
+        forEachParticle(startTask);
+        int level = 0;
+        for (int i = 0; i < particles.count; i++) {
+            level = Math.max(level, particles.level[i]);
         }
-        for (Particle particle : smallParticles) {
-            if (isInCurrentUniverse(particle)) {
-                particle.updateLocationAndVelocity(timeStep, gridSize, size);
-            }
+        if (blockLevels > 0) {
+            double[] local = {level};
+            double[] finest = new double[1];
+            communicator.allReduceMax(local, finest, 1);
+            level = (int)finest[0];
+        }
+        finestLevel = level;
+        subStep = 0;
+        forEachParticle(openingTask);
+        driftGhosts();
+        time = metrics.lap(Metrics.INTEGRATE, time);
+        for (subStep = 1; subStep < 1 << finestLevel; subStep++) {
+            selectActiveParticles();
+            forceSolver.prepare(particles, exchange.getGhosts());
+            long start = System.nanoTime();
+            workPool.forEach(activeCount, activeForceTask);
+            computeNanos += System.nanoTime() - start;
+            forceEvaluations += activeCount;
+            time = metrics.lap(Metrics.FORCES, time);
+            forEachParticle(subStepTask);
+            driftGhosts();
+            time = metrics.lap(Metrics.INTEGRATE, time);
         }
+        return time;
     }
 
     /**
-     * Updates the forces on the particles in the current universe at current iteration
+     * @param level
+     * @return step of a particle at the given level
      */
-    private void updateForcesOnParticles() {
-        List<Particle> allParticles = new ArrayList<>();
-        allParticles.addAll(largeParticles);
-        allParticles.addAll(smallParticles);
-        for (UniverseToSend otherUniverse : data) {
-            allParticles.addAll(otherUniverse.largeParticles);
-            allParticles.addAll(otherUniverse.smallParticles);
-        }
-        for (Particle particle : largeParticles) {
-            if (isInCurrentUniverse(particle)) {
-                particle.calculateForceOnParticle(allParticles);
-            }
+    private double stepOf(int level) {
+        return timeStep / (1 << level);
+    }
+
+    /**
+     * @param level level of a particle
+     * @return true if the step of a particle at the given level ends at the current sub-step
+     */
+    private boolean isActive(int level) {
+        return subStep % (1 << (finestLevel - level)) == 0;
+    }
+
+    /**
+     * Collects the particles whose step ends at the current sub-step into active
+     */
+    private void selectActiveParticles() {
+        if (active.length < particles.count) {
+            active = new int[particles.mass.length];
         }
-        for (Particle particle : smallParticles) {
-            if (isInCurrentUniverse(particle)) {
-                particle.calculateForceOnParticle(allParticles);
+        activeCount = 0;
+        for (int i = 0; i < particles.count; i++) {
+            if (isActive(particles.level[i])) {
+                active[activeCount++] = i;
             }
         }
     }
 
     /**
-     * If any of the data received from other processes contains particles that have moved universes into current one,
-     * they should be added to the small or large particle list
+     * Moves the ghosts received from other processes, and the replicated large particles, along with their velocities
+     * by one sub-step, so that forces calculated between exchanges see them about where they are
      */
-    private void addEnteredParticles() {
-        for (UniverseToSend universe : data) {
-            for (Particle smallParticle : universe.smallParticles) {
-                if (isInCurrentUniverse(smallParticle)) {
-                    smallParticles.add(smallParticle);
-                }
-            }
-            for (Particle largeParticle : universe.largeParticles) {
-                if (isInCurrentUniverse(largeParticle)) {
-                    System.out.println("Adding a large particle to process " + rank);
-                    largeParticles.add(largeParticle);
-                }
-            }
+    private void driftGhosts() {
+        if (finestLevel == 0) return;
+        for (ParticleStore ghosts : exchange.getGhosts()) {
+            driftAll(ghosts);
+        }
+        if (largeSolver != null) {
+            driftAll(largeSolver.getLargeParticles());
         }
     }
 
     /**
-     * If a particle in the universe exited after updating their locations,
-     * they should no longer be accounted for by current universe, so they must be removed from small or large particle list.
+     * Moves every particle of a store along with its velocity by one sub-step
+     * @param store
      */
-    private void removeExitedParticles() {
-        for (Particle largeParticle : largeParticles) {
-            // if large particle is out of current universe, remove it from largeParticles set
-            if (!isInCurrentUniverse(largeParticle)) {
-                System.out.println("Removing a large particle from process " + rank);
-                largeParticles = new ArrayList<>(largeParticles);
-                largeParticles.remove(largeParticle);
-            }
+    private void driftAll(ParticleStore store) {
+        for (int i = 0; i < store.count; i++) {
+            Particle.drift(store, i, stepOf(finestLevel), decomposition.getWidth(), decomposition.getHeight());
         }
-        for (Particle smallParticle : smallParticles) {
-            // if small particle is out of current universe, remove it from smallParticles set
-            if (!isInCurrentUniverse(smallParticle)) {
-                smallParticles = new ArrayList<>(smallParticles);
-                smallParticles.remove(smallParticle);
+    }
+
+    /**
+     * Runs a task over the particles of the current universe on the work pool, adding the time it took to the cost
+     * of the process used by load balancing
+     * @param task
+     */
+    private void forEachParticle(WorkPool.IndexTask task) {
+        long start = System.nanoTime();
+        workPool.forEach(particles.count, task);
+        computeNanos += System.nanoTime() - start;
+    }
+
+    /**
+     * Updates the forces on the particles in the current universe at current iteration.
+     * The particles of the current universe and the ghosts received from every process in the horizon are handed to
+     * the force solver directly from their own stores, so no combined list of particles is built.
+     * Once the solver is prepared, the forces are calculated in parallel over the threads of the work pool.
+     * @throws MPIException
+     */
+    private void updateForcesOnParticles() throws MPIException {
+        forceSolver.prepare(particles, exchange.getGhosts());
+        forEachParticle(forceTask);
+    }
+
+    /**
+     * Calculates the forces on the particles that are further than the interaction range of the force solver from
+     * every edge of the current universe. These do not depend on the ghosts of other processes, so they are
+     * calculated while the ghosts are in flight.
+     * @throws MPIException
+     */
+    private void updateInteriorForces() throws MPIException {
+        if (forceSolver.getInteractionRange() == Double.POSITIVE_INFINITY) return;
+        forceSolver.prepare(particles, noHalo);
+        forEachParticle(interiorForceTask);
+    }
+
+    /**
+     * Calculates the forces on the particles left out by updateInteriorForces once the ghosts of every process in the
+     * horizon have arrived. A force solver that does not need ghosts has calculated every force already.
+     * @throws MPIException
+     */
+    private void updateBoundaryForces() throws MPIException {
+        if (forceSolver.getInteractionRange() == 0) return;
+        forceSolver.prepare(particles, exchange.getGhosts());
+        forEachParticle(boundaryForceTask);
+    }
+
+    /**
+     * Helper function to check if a particle of the current universe is further than the interaction range of the
+     * force solver from every edge of the current universe, or the force solver does not use ghosts at all
+     * @param store ParticleStore holding the particle to check
+     * @param index index of the particle in the store
+     * @return true if the force on the particle does not depend on the ghosts of other processes
+     */
+    private boolean isInterior(ParticleStore store, int index) {
+        double range = forceSolver.getInteractionRange();
+        if (range == 0) return true;
+        // the large sources of a large particle include every ghost
+        if (largeSolver != null && store.large[index]) return false;
+        return decomposition.distanceToBoundary(rank, store.locX[index], store.locY[index]) > range;
+    }
+
+    /**
+     * Particles that other processes handed over to the current universe should be added to the particle store.
+     * They are appended without being checked. A migrant passing through on its way to a universe beyond the horizon
+     * is moved along with the particles of the current universe, and handed on at the next export.
+     */
+    private void addEnteredParticles() {
+        for (ParticleStore received : exchange.getMigrants()) {
+            for (int i = 0; i < received.count; i++) {
+                particles.addFrom(received, i);
             }
         }
     }
 
     /**
-     * Helper function to check if a given particle is contained in the current universe
-     * @param particle Particle object to check
-     * @return true or false depending on if given Particle is in the current universe or not, respectively
+     * Aggregates the metrics of every process and writes them to the metrics file
+     * @throws MPIException
      */
-    private boolean isInCurrentUniverse(Particle particle) {
-        double xLowerBound = column * gridSize;
-        double xUpperBound = (column + 1) * gridSize;
-        double yLowerBound = row * gridSize;
-        double yUpperBound = (row + 1) * gridSize;
-        if (particle.locX < xLowerBound || particle.locX >= xUpperBound) return false;
-        if (particle.locY < yLowerBound || particle.locY >= yUpperBound) return false;
-        return true;
+    private void reportMetrics() throws MPIException {
+        metrics.setTotal(Metrics.MIGRATIONS, exchange.getMigrantsSent());
+        metrics.setTotal(Metrics.FORCE_EVALUATIONS, forceEvaluations);
+        if (collisionResolver != null) {
+            metrics.setTotal(Metrics.MERGES, collisionResolver.getMerges());
+        }
+        metrics.setTotal(Metrics.BYTES_SENT, exchange.getBytesSent());
+        metrics.setTotal(Metrics.BYTES_RECEIVED, exchange.getBytesReceived());
+        metrics.report(iteration);
     }
 
     /**
@@ -224,67 +660,35 @@ public class Universe {
      * @throws Exception
      */
     public void syncData(int rankToSync) throws Exception {
-        if (rankToSync != rank && ranksInHorizon.contains(new Integer(rankToSync))) {
-            sendData(rankToSync);
+        long time = System.nanoTime();
+        if (rankToSync != rank && exchange.isNeighbour(rankToSync)) {
+            exchange.send(rankToSync);
         } else if (rankToSync == rank) {
-            int numReceives = ranksInHorizon.size();
-            for (int i = 0; i < numReceives; i++) {
-                receiveData();
-            }
+            exchange.receiveAll();
         }
+        metrics.lap(Metrics.SYNC, time);
     }
 
     /**
-     * Method to send data from a process to the process with given rank.
-     * The data sent is the object's current state of the UniverseToSend object
-     * @param receivingRank
-     * @throws MPIException
-     * @throws IOException
+     * @return true if the data of the processes in the horizon is exchanged by simulateIteration instead of syncData
      */
-    private void sendData(int receivingRank) throws MPIException, IOException {
-        ByteArrayOutputStream bos = new ByteArrayOutputStream();
-        ObjectOutput out = null;
-        try {
-            UniverseToSend newUniverse = new UniverseToSend(
-                    this.universeToSend.smallParticles, this.universeToSend.largeParticles, this.universeToSend.rank);
-            out = new ObjectOutputStream(bos);
-            out.writeObject(newUniverse);
-            out.flush();
-            byte[] universeObject = bos.toByteArray();
-            MPI.COMM_WORLD.send(universeObject, universeObject.length, MPI.BYTE, receivingRank, 0);
-        } finally {
-            try {
-                bos.close();
-            } catch (IOException ex) {
-            }
-        }
+    public boolean usesNonBlockingExchange() {
+        return nonBlockingExchange;
     }
 
     /**
-     * Method to receive data from a process. The function starts a receive without specifying where the data needs to come from.
-     * After receiving the UniverseToSend object, it is added to the `data` array of UniverseToSend objects
-     * @throws MPIException
-     * @throws IOException
-     * @throws ClassNotFoundException
+     * Prints the number of messages and bytes the process sent and received over the run
      */
-    private void receiveData() throws MPIException, IOException, ClassNotFoundException {
-        byte[] universeObject = new byte[10000000]; // buffer to receive the UniverseToSend object
-        Status status = MPI.COMM_WORLD.recv(universeObject, universeObject.length, MPI.BYTE, MPI.ANY_SOURCE, 0);
-        ByteArrayInputStream bis = new ByteArrayInputStream(universeObject);
-        ObjectInput in = null;
-        try {
-            in = new ObjectInputStream(bis);
-            Object receivedUniverse = in.readObject();
-            UniverseToSend addedUniverse = new UniverseToSend(
-                    ((UniverseToSend)receivedUniverse).smallParticles, ((UniverseToSend)receivedUniverse).largeParticles, ((UniverseToSend)receivedUniverse).rank);
-            data.add(addedUniverse);
-        } finally {
-            try {
-                if (in != null) {
-                    in.close();
-                }
-            } catch (IOException ex) {
-            }
+    public void reportCommunication() {
+        exchange.reportCommunication();
+    }
+
+    /**
+     * Waits for the snapshots still being written and closes the trajectory file
+     */
+    public void closeSnapshots() {
+        if (snapshotWriter != null) {
+            snapshotWriter.close();
         }
     }
 
@@ -292,7 +696,14 @@ public class Universe {
      * public method to clear other universes' data held in the current one
      */
     public void clearData() {
-        this.data.clear();
+        exchange.clear();
+    }
+
+    /**
+     * @return current iteration of the simulation, after the iteration of the checkpoint when restarted from one
+     */
+    public int getIteration() {
+        return iteration;
     }
 
     /**
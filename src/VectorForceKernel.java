@@ -0,0 +1,90 @@
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+import java.util.List;
+
+/**
+ * ForceKernel summing the forces of the source particles with the SIMD instructions of the processor through the
+ * Vector API.
+ * The location and mass columns of every store are loaded a tile of as many particles as there are lanes at a time,
+ * and two tiles are summed into separate accumulators so that consecutive square roots and divisions do not wait on
+ * each other. The particles left after the last whole tile are summed one at a time.
+ * Needs the jdk.incubator.vector module, see ForceKernel.create.
+ */
+public class VectorForceKernel implements ForceKernel {
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    private double softeningSquared; // square of the softening length
+
+    /**
+     * Constructor for VectorForceKernel objects
+     * @param softeningSquared square of the softening length, larger than 0
+     */
+    public VectorForceKernel(double softeningSquared) {
+        this.softeningSquared = softeningSquared;
+    }
+
+    /**
+     * @return number of doubles the processor handles in one instruction
+     */
+    public static int lanes() {
+        return SPECIES.length();
+    }
+
+    @Override
+    public void computeForce(ParticleStore particles, int index, List<ParticleStore> sources) {
+        double locX = particles.locX[index];
+        double locY = particles.locY[index];
+        int lanes = SPECIES.length();
+        DoubleVector x = DoubleVector.broadcast(SPECIES, locX);
+        DoubleVector y = DoubleVector.broadcast(SPECIES, locY);
+        DoubleVector softening = DoubleVector.broadcast(SPECIES, softeningSquared);
+        DoubleVector sumX0 = DoubleVector.zero(SPECIES), sumY0 = DoubleVector.zero(SPECIES);
+        DoubleVector sumX1 = DoubleVector.zero(SPECIES), sumY1 = DoubleVector.zero(SPECIES);
+        double sumX = 0;
+        double sumY = 0;
+        for (int s = 0; s < sources.size(); s++) {
+            ParticleStore source = sources.get(s);
+            double[] sourceLocX = source.locX;
+            double[] sourceLocY = source.locY;
+            double[] sourceMass = source.mass;
+            int count = source.count;
+            int j = 0;
+            for (; j + 2 * lanes <= count; j += 2 * lanes) {
+                DoubleVector xLength0 = DoubleVector.fromArray(SPECIES, sourceLocX, j).sub(x);
+                DoubleVector yLength0 = DoubleVector.fromArray(SPECIES, sourceLocY, j).sub(y);
+                DoubleVector xLength1 = DoubleVector.fromArray(SPECIES, sourceLocX, j + lanes).sub(x);
+                DoubleVector yLength1 = DoubleVector.fromArray(SPECIES, sourceLocY, j + lanes).sub(y);
+                DoubleVector distanceSquared0 = xLength0.fma(xLength0, yLength0.fma(yLength0, softening));
+                DoubleVector distanceSquared1 = xLength1.fma(xLength1, yLength1.fma(yLength1, softening));
+                DoubleVector weight0 = DoubleVector.fromArray(SPECIES, sourceMass, j)
+                        .div(distanceSquared0.mul(distanceSquared0.sqrt()));
+                DoubleVector weight1 = DoubleVector.fromArray(SPECIES, sourceMass, j + lanes)
+                        .div(distanceSquared1.mul(distanceSquared1.sqrt()));
+                sumX0 = xLength0.fma(weight0, sumX0);
+                sumY0 = yLength0.fma(weight0, sumY0);
+                sumX1 = xLength1.fma(weight1, sumX1);
+                sumY1 = yLength1.fma(weight1, sumY1);
+            }
+            for (; j < count; j++) {
+                double xLength = sourceLocX[j] - locX;
+                double yLength = sourceLocY[j] - locY;
+                double distanceSquared = xLength * xLength + yLength * yLength + softeningSquared;
+                double weight = sourceMass[j] / (distanceSquared * Math.sqrt(distanceSquared));
+                sumX += xLength * weight;
+                sumY += yLength * weight;
+            }
+        }
+        sumX += sumX0.add(sumX1).reduceLanes(VectorOperators.ADD);
+        sumY += sumY0.add(sumY1).reduceLanes(VectorOperators.ADD);
+        double scale = particles.mass[index] == 0 ? 3 : 3 * particles.mass[index];
+        particles.forceX[index] = scale * sumX;
+        particles.forceY[index] = scale * sumY;
+    }
+
+    @Override
+    public String getName() {
+        return "vector (" + SPECIES.length() + " lanes)";
+    }
+}
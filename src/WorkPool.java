@@ -0,0 +1,78 @@
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Pool of threads running a data-parallel loop over the particles of a universe.
+ * The loop is split into contiguous chunks of particles and every particle is handled by exactly one thread, so as
+ * long as the work done for one particle only writes to that particle, the results are identical to running the
+ * loop on a single thread. With one thread the loop runs on the calling thread and no pool is created.
+ */
+public class WorkPool {
+    private static final int CHUNKS_PER_THREAD = 4; // more chunks than threads so that uneven chunks even out
+    private static final int MIN_CHUNK = 256; // chunks smaller than this are not worth handing to another thread
+
+    private int threads; // number of threads running the loop
+    private ForkJoinPool pool; // null when running on the calling thread only
+
+    /**
+     * Interface for the work done on a single particle
+     */
+    public interface IndexTask {
+        void run(int index);
+    }
+
+    /**
+     * Constructor for WorkPool objects
+     * @param threads number of threads, values below 1 use a single thread
+     */
+    public WorkPool(int threads) {
+        this.threads = Math.max(threads, 1);
+        if (this.threads > 1) {
+            this.pool = new ForkJoinPool(this.threads);
+        }
+    }
+
+    /**
+     * Runs the task for every index from 0 to count - 1 and returns once all of them are done
+     * @param count number of indices
+     * @param task work to do for each index
+     */
+    public void forEach(int count, IndexTask task) {
+        int chunk = Math.max(MIN_CHUNK, (count + threads * CHUNKS_PER_THREAD - 1) / (threads * CHUNKS_PER_THREAD));
+        if (pool == null || count <= chunk) {
+            for (int i = 0; i < count; i++) {
+                task.run(i);
+            }
+            return;
+        }
+        pool.invoke(new RangeAction(task, 0, count, chunk));
+    }
+
+    /**
+     * Fork-join action splitting a range of indices in halves until it is no larger than a chunk
+     */
+    private static class RangeAction extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private IndexTask task;
+        private int from, to, chunk;
+
+        RangeAction(IndexTask task, int from, int to, int chunk) {
+            this.task = task;
+            this.from = from;
+            this.to = to;
+            this.chunk = chunk;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= chunk) {
+                for (int i = from; i < to; i++) {
+                    task.run(i);
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new RangeAction(task, from, middle, chunk), new RangeAction(task, middle, to, chunk));
+        }
+    }
+}